@@ -0,0 +1,66 @@
+/**
+ * @author Danny Cummings
+ * This class holds the hidden layer of the neural network evaluator from
+ * both sides' points of view, updated as pieces are added, moved and 
+ * removed so a position never has to be fed through the whole network
+ */
+package model;
+
+public class Accumulator {
+	private Network network;
+	private short[] white, black; // Hidden layer seen by each side
+	
+	/**
+	 * Creates the hidden layer of an empty board
+	 * @param network
+	 */
+	public Accumulator(Network network) {
+		this.network = network;
+		white = network.biases();
+		black = network.biases();
+	}
+	
+	/**
+	 * Copy constructor, used when the board is copied
+	 * @param accumulator
+	 */
+	public Accumulator(Accumulator accumulator) {
+		network = accumulator.network;
+		white = accumulator.white.clone();
+		black = accumulator.black.clone();
+	}
+	
+	/**
+	 * Adds a piece standing on (x, y)
+	 * @param value - signed value of the piece
+	 * @param x
+	 * @param y
+	 */
+	public void add(int value, int x, int y) {
+		network.add(white, Network.input(value, x, y, true));
+		network.add(black, Network.input(value, x, y, false));
+	}
+	
+	/**
+	 * Removes a piece standing on (x, y)
+	 * @param value - signed value of the piece
+	 * @param x
+	 * @param y
+	 */
+	public void remove(int value, int x, int y) {
+		network.subtract(white, Network.input(value, x, y, true));
+		network.subtract(black, Network.input(value, x, y, false));
+	}
+	
+	public Network getNetwork() {
+		return network;
+	}
+	
+	public short[] getWhite() {
+		return white;
+	}
+	
+	public short[] getBlack() {
+		return black;
+	}
+}
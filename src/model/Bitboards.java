@@ -0,0 +1,195 @@
+/**
+ * @author Danny Cummings
+ * This class holds the attack tables used to generate moves with bitboards
+ * A bitboard is a long where bit (y * 8 + x) stands for the square (x, y)
+ * Knights, kings and pawns look their attacks up in tables built once,
+ * and bishops, rooks and queens use magic bitboards - the pieces blocking
+ * a slider are multiplied by a magic number that maps every blocker
+ * pattern to its own slot of a table, which is also built at startup
+ */
+package model;
+
+import java.util.Random;
+
+public class Bitboards {
+
+	private static final long SEED = 728; // Fixed so startup always finds the same magics
+
+	private static final long[] KNIGHT = new long[64], KING = new long[64];
+	private static final long[][] PAWN = new long[2][64]; // [0] white, [1] black
+
+	/* Magic bitboard tables for rooks then bishops */
+	private static final long[] ROOK_MASKS = new long[64], ROOK_MAGICS = new long[64],
+								BISHOP_MASKS = new long[64], BISHOP_MAGICS = new long[64];
+	private static final int[] ROOK_SHIFTS = new int[64], BISHOP_SHIFTS = new int[64];
+	private static final long[][] ROOK_ATTACKS = new long[64][], BISHOP_ATTACKS = new long[64][];
+
+	private static final int[][] ROOK_DIRECTIONS = { {1, 0}, {-1, 0}, {0, 1}, {0, -1} },
+								BISHOP_DIRECTIONS = { {1, 1}, {1, -1}, {-1, 1}, {-1, -1} },
+								KNIGHT_OFFSETS = { {1, -2}, {2, -1}, {2, 1}, {1, 2}, {-1, 2}, {-2, 1}, {-2, -1}, {-1, -2} },
+								KING_OFFSETS = { {1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1} };
+
+	static {
+		for (int square = 0; square < 64; square++) {
+			int x = square & 7, y = square >>> 3;
+			KNIGHT[square] = steps(x, y, KNIGHT_OFFSETS);
+			KING[square] = steps(x, y, KING_OFFSETS);
+			PAWN[0][square] = steps(x, y, new int[][] { {-1, -1}, {1, -1} }); // White pawns attack upwards
+			PAWN[1][square] = steps(x, y, new int[][] { {-1, 1}, {1, 1} });
+		}
+
+		Random random = new Random(SEED);
+		for (int square = 0; square < 64; square++) {
+			ROOK_MASKS[square] = mask(square, ROOK_DIRECTIONS);
+			ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+			ROOK_ATTACKS[square] = new long[1 << Long.bitCount(ROOK_MASKS[square])];
+			ROOK_MAGICS[square] = findMagic(square, ROOK_MASKS[square], ROOK_SHIFTS[square], ROOK_DIRECTIONS, ROOK_ATTACKS[square], random);
+
+			BISHOP_MASKS[square] = mask(square, BISHOP_DIRECTIONS);
+			BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+			BISHOP_ATTACKS[square] = new long[1 << Long.bitCount(BISHOP_MASKS[square])];
+			BISHOP_MAGICS[square] = findMagic(square, BISHOP_MASKS[square], BISHOP_SHIFTS[square], BISHOP_DIRECTIONS, BISHOP_ATTACKS[square], random);
+		}
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return bitboard of the single square (x, y)
+	 */
+	public static long bit(int x, int y) {
+		return 1L << (y * 8 + x);
+	}
+
+	public static long knightAttacks(int square) {
+		return KNIGHT[square];
+	}
+
+	public static long kingAttacks(int square) {
+		return KING[square];
+	}
+
+	/**
+	 * @param white - color of the pawn
+	 * @param square
+	 * @return squares a pawn of the given color on square attacks
+	 */
+	public static long pawnAttacks(boolean white, int square) {
+		return PAWN[white ? 0 : 1][square];
+	}
+
+	/**
+	 * @param square
+	 * @param occupied - every piece on the board
+	 * @return squares a rook on square attacks, including the first blocker of each ray
+	 */
+	public static long rookAttacks(int square, long occupied) {
+		return ROOK_ATTACKS[square][(int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+	}
+
+	/**
+	 * @param square
+	 * @param occupied - every piece on the board
+	 * @return squares a bishop on square attacks, including the first blocker of each ray
+	 */
+	public static long bishopAttacks(int square, long occupied) {
+		return BISHOP_ATTACKS[square][(int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+	}
+
+	public static long queenAttacks(int square, long occupied) {
+		return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param offsets
+	 * @return the squares one step away from (x, y) in each of the offsets that stay on the board
+	 */
+	private static long steps(int x, int y, int[][] offsets) {
+		long board = 0;
+		for (int[] offset : offsets) {
+			int tx = x + offset[0], ty = y + offset[1];
+			if (tx >= 0 && tx < 8 && ty >= 0 && ty < 8) { board |= bit(tx, ty); }
+		}
+		return board;
+	}
+
+	/**
+	 * Walks each ray from square until it leaves the board or hits a piece
+	 * @param square
+	 * @param occupied
+	 * @param directions
+	 * @return attacked squares, including the blockers
+	 */
+	private static long slide(int square, long occupied, int[][] directions) {
+		long board = 0;
+		for (int[] direction : directions) {
+			for (int x = (square & 7) + direction[0], y = (square >>> 3) + direction[1]; x >= 0 && x < 8 && y >= 0 && y < 8;
+					x += direction[0], y += direction[1]) {
+				board |= bit(x, y);
+				if ((occupied & bit(x, y)) != 0) { break; }
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * The edge square of each ray is left out since a piece there cannot block anything further
+	 * @param square
+	 * @param directions
+	 * @return squares whose pieces can block a slider on square
+	 */
+	private static long mask(int square, int[][] directions) {
+		long board = 0;
+		for (int[] direction : directions) {
+			for (int x = (square & 7) + direction[0], y = (square >>> 3) + direction[1];
+					x + direction[0] >= 0 && x + direction[0] < 8 && y + direction[1] >= 0 && y + direction[1] < 8;
+					x += direction[0], y += direction[1]) {
+				board |= bit(x, y);
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Tries random sparse numbers until one maps every blocker pattern of the
+	 * mask to a slot without clashing with a pattern that has different attacks,
+	 * filling the attack table as it goes
+	 * @param square
+	 * @param mask
+	 * @param shift
+	 * @param directions
+	 * @param table - filled with the attacks of each slot
+	 * @param random
+	 * @return the magic number
+	 */
+	private static long findMagic(int square, long mask, int shift, int[][] directions, long[] table, Random random) {
+		int size = 1 << Long.bitCount(mask);
+		long[] blockers = new long[size], attacks = new long[size];
+		long subset = 0;
+		for (int i = 0; i < size; i++) { // Every subset of the mask
+			blockers[i] = subset;
+			attacks[i] = slide(square, subset, directions);
+			subset = (subset - mask) & mask;
+		}
+
+		int[] used = new int[size]; // Attempt that last wrote each slot, so the table is not cleared every try
+		for (int attempt = 1; ; attempt++) {
+			long magic = random.nextLong() & random.nextLong() & random.nextLong(); // Few bits set work best
+			if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) { continue; }
+
+			boolean failed = false;
+			for (int i = 0; i < size && !failed; i++) {
+				int index = (int) ((blockers[i] * magic) >>> shift);
+				if (used[index] != attempt) {
+					used[index] = attempt;
+					table[index] = attacks[i];
+				} else if (table[index] != attacks[i]) {
+					failed = true;
+				}
+			}
+			if (!failed) { return magic; }
+		}
+	}
+}
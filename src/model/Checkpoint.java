@@ -0,0 +1,218 @@
+/**
+ * @author Danny Cummings
+ * This class saves a long analysis to a memory-mapped file as it runs, so
+ * a search that is stopped or whose JVM restarts can carry on from the last
+ * depth it completed instead of starting again
+ * A snapshot holds the lines of the last completed depth and the whole
+ * transposition table. The search only hands over its lines when a depth
+ * completes, and a background thread copies the table while the search
+ * keeps storing into it - a slot caught half-written fails to match when
+ * read back, so the search is never paused
+ * The file has two slots for snapshots and a header naming the last one
+ * written in full. A snapshot goes to the other slot and the header is only
+ * changed once it is flushed, so a crash mid-snapshot leaves the one before
+ * intact
+ *
+ * Header, HEADER_BYTES long:
+ *   magic, version, table size and the slot in use (-1 for none) as ints,
+ *   the position analyzed as Chessboard.encode writes it, snapshots written as a long
+ * Each slot:
+ *   depth and number of lines as ints, then MAX_LINES lines of score, nodes,
+ *   pv length and up to MAX_PV moves, then the table as TranspositionTable.save writes it
+ */
+package model;
+
+/* IO */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Checkpoint implements Search.Listener {
+
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x43484B50, // "CHKP"
+							HEADER_BYTES = 128,
+							MAX_LINES = 8, MAX_PV = 64,
+							LINE_BYTES = 4 + 8 + 4 + MAX_PV * 2,
+							LINES_BYTES = 8 + MAX_LINES * LINE_BYTES;
+
+	/* Offsets in the header */
+	private static final int SIZE_AT = 8, SLOT_AT = 12, POSITION_AT = 16, COUNT_AT = 48;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer file;
+	private final TranspositionTable table;
+	private final long[] position = new long[Chessboard.ENCODED_LONGS];
+	private final int slotBytes;
+
+	private volatile List<SearchResult> latest = null; // Lines of the last completed depth
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	/**
+	 * Opens the checkpoint file for an analysis, creating it if it is missing
+	 * or starting it afresh if it belongs to another position, table size or version
+	 * @param file
+	 * @param grid - the position analyzed
+	 * @param table - the table the search uses
+	 * @throws IOException
+	 */
+	public Checkpoint(Path file, Chessboard grid, TranspositionTable table) throws IOException {
+		this.table = table;
+		grid.encode(position, 0);
+		slotBytes = LINES_BYTES + table.getSize() * 16;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 2L * slotBytes);
+
+		if (!matches()) {
+			this.file.putInt(0, MAGIC).putInt(4, VERSION).putInt(SIZE_AT, table.getSize()).putInt(SLOT_AT, -1).putLong(COUNT_AT, 0);
+			for (int i = 0; i < position.length; i++) { this.file.putLong(POSITION_AT + i * 8, position[i]); }
+			this.file.force();
+		}
+	}
+
+	/**
+	 * @return true if the file's header is for this position, table size and version
+	 */
+	private boolean matches() {
+		if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION || file.getInt(SIZE_AT) != table.getSize()) { return false; }
+		for (int i = 0; i < position.length; i++) {
+			if (file.getLong(POSITION_AT + i * 8) != position[i]) { return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Fills the table from the last snapshot
+	 * @return the lines of the depth it had completed, best first, empty if there is no snapshot
+	 */
+	public synchronized List<SearchResult> load() {
+		List<SearchResult> lines = new ArrayList<SearchResult>();
+		int slot = file.getInt(SLOT_AT);
+		if (slot < 0) { return lines; }
+
+		ByteBuffer buffer = slice(slot);
+		int depth = buffer.getInt(), count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			buffer.position(8 + i * LINE_BYTES);
+			int score = buffer.getInt();
+			long nodes = buffer.getLong();
+			Move[] pv = new Move[buffer.getInt()];
+			for (int j = 0; j < pv.length; j++) { pv[j] = Move.unpack(buffer.getShort()); }
+			lines.add(new SearchResult(pv[0], score, depth, nodes, Arrays.asList(pv)));
+		}
+		buffer.position(LINES_BYTES);
+		table.load(buffer.asLongBuffer());
+		latest = lines.isEmpty() ? null : lines;
+		return lines;
+	}
+
+	/**
+	 * Takes the lines of each completed depth, called on the searching thread
+	 * so it only keeps them for the next snapshot
+	 * @param lines
+	 */
+	public void update(List<SearchResult> lines) {
+		latest = lines;
+	}
+
+	/**
+	 * Starts writing a snapshot in the background every interval
+	 * @param millis - interval
+	 */
+	public synchronized void start(long millis) {
+		if (running) { return; }
+		running = true;
+		thread = new Thread(() -> {
+			while (running) {
+				try {
+					Thread.sleep(millis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				save();
+			}
+		}, "Checkpoint");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes a snapshot to the slot not in use, then makes it the one in use
+	 * Nothing is written before the first depth completes
+	 */
+	public synchronized void save() {
+		List<SearchResult> lines = latest;
+		if (lines == null) { return; }
+		int slot = (file.getInt(SLOT_AT) == 0) ? 1 : 0;
+
+		ByteBuffer buffer = slice(slot);
+		int count = Math.min(lines.size(), MAX_LINES);
+		buffer.putInt(lines.get(0).getDepth()).putInt(count);
+		for (int i = 0; i < count; i++) {
+			SearchResult line = lines.get(i);
+			List<Move> pv = line.getPv().subList(0, Math.min(line.getPv().size(), MAX_PV));
+			buffer.position(8 + i * LINE_BYTES);
+			buffer.putInt(line.getScore()).putLong(line.getNodes()).putInt(pv.size());
+			for (Move move : pv) { buffer.putShort((short) move.pack()); }
+		}
+		buffer.position(LINES_BYTES);
+		table.save(buffer.asLongBuffer());
+		file.force();
+
+		file.putInt(SLOT_AT, slot).putLong(COUNT_AT, file.getLong(COUNT_AT) + 1);
+		file.force();
+	}
+
+	/**
+	 * @return snapshots written to the file since it was started afresh
+	 */
+	public long getSnapshots() {
+		return file.getLong(COUNT_AT);
+	}
+
+	/**
+	 * Stops the background snapshots, writes a last one and closes the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		Thread background;
+		synchronized (this) {
+			if (!channel.isOpen()) { return; }
+			running = false;
+			background = thread;
+		}
+		if (background != null) {
+			background.interrupt();
+			try {
+				background.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			save();
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param slot
+	 * @return a view of the slot, positioned at its start
+	 */
+	private ByteBuffer slice(int slot) {
+		ByteBuffer buffer = file.duplicate();
+		buffer.position(HEADER_BYTES + slot * slotBytes);
+		buffer.limit(HEADER_BYTES + (slot + 1) * slotBytes);
+		return buffer.slice();
+	}
+}
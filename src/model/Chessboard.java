@@ -12,9 +12,12 @@ import javafx.scene.image.ImageView;
 import javafx.scene.control.Label;
 
 /* Data Structures */
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import javafx.util.Pair; 
+import java.util.List;
 
 /* Utility Classes */
 import utils.ChessUtils;
@@ -26,6 +29,56 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	private Piece[][] pieceList = new Piece[8][8]; // Position of each piece on board
 	private Label[][] labelList = new Label[8][8]; // Position of each label on board
 
+	/* Castling rights stored as bit flags */
+	public static final int WHITE_KINGSIDE = 1, WHITE_QUEENSIDE = 2, BLACK_KINGSIDE = 4, BLACK_QUEENSIDE = 8;
+	
+	public static final int PAWN = 1, KNIGHT = 2, BISHOP = 3, ROOK = 5, QUEEN = 9, KING = 200; // Worth of each piece
+	
+	private static final int[] PROMOTIONS = { QUEEN, ROOK, BISHOP, KNIGHT }; // Pieces a pawn can become
+	
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+	
+	public static final int ENCODED_LONGS = 4, ENCODED_BYTES = ENCODED_LONGS * 8; // Size of a position written by encode
+	
+	/* FEN letter of each piece and its value */
+	private static final String FEN_PIECES = "pnbrqk";
+	private static final int[] FEN_VALUES = { PAWN, KNIGHT, BISHOP, ROOK, QUEEN, KING };
+	
+	/* Bitboards of each piece, indexed like Zobrist.index(), and of each color - white then black */
+	private long[] pieceBoards = new long[12], colorBoards = new long[2];
+	
+	private boolean whiteTurn = true; // Side to move
+	private int castling = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+	private Coordinate enPassant = null; // Square a pawn may capture onto en passant, null if none
+	private int halfmoveClock = 0; // Plies since the last capture or pawn move
+	
+	private long hash = Zobrist.castling(castling); // Zobrist hash of the position
+	private long pawnHash = 0; // Zobrist hash of the pawns alone
+	private long[] history = new long[16]; // Hashes of the positions since the last irreversible move
+	private int historySize = 0;
+	
+	/* Hidden layer of the neural network evaluator, null when no network is loaded */
+	private Accumulator accumulator;
+	
+	/* Legal moves of the side to move, generated once per position and kept until the hash changes */
+	private MoveCache moveCache = null;
+	
+	/**
+	 * The legal moves of the position with the given hash
+	 */
+	private static class MoveCache {
+		private final long hash;
+		private final List<Move> moves;
+		
+		private MoveCache(long hash, List<Move> moves) {
+			this.hash = hash;
+			this.moves = moves;
+		}
+	}
+	
+	/* Shared by all boards so the search reuses pawn structures counted at other nodes */
+	private static PawnTable pawnTable = new PawnTable(PawnTable.DEFAULT_SIZE);
+
 	/* Static so that all new instances of boards have same information */
 	private static HashMap<String, String> moveMap = new HashMap<String, String>(); // Maps board to best move
 	private static HashMap<String, String> scoreMap = new HashMap<String, String>(); // Maps board to score
@@ -45,6 +98,7 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 		/* Loads the AI data to enhance performance */
 		//ChessUtils.load("movedata.txt", moveMap);
 		//ChessUtils.load("scoredata.txt", scoreMap);
+		accumulator = (Network.get() != null) ? new Accumulator(Network.get()) : null;
 	}
 	
 	/**
@@ -58,7 +112,7 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 				Label label = grid.labelAt(row, col);
 				if (piece != null) {
 					pieceList[row][col] = new Piece(piece.isWhite(), 
-							new ImageView(piece.getImage().getImage()), 
+							(piece.getImage() != null) ? new ImageView(piece.getImage().getImage()) : null, // No image when set up without a view
 							new Coordinate(piece.getLocation().getX(), piece.getLocation().getY()), 
 							piece.getValue());
 				}
@@ -69,8 +123,239 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 				labelList[row][col] = label;
 			}
 		}
+		whiteTurn = grid.whiteTurn;
+		castling = grid.castling;
+		enPassant = grid.enPassant;
+		halfmoveClock = grid.halfmoveClock;
+		pieceBoards = grid.pieceBoards.clone();
+		colorBoards = grid.colorBoards.clone();
+		hash = grid.hash;
+		pawnHash = grid.pawnHash;
+		history = Arrays.copyOf(grid.history, Math.max(grid.historySize + 1, 16)); // Only positions since the last irreversible move
+		historySize = grid.historySize;
+		accumulator = (grid.accumulator != null) ? new Accumulator(grid.accumulator) : null;
+		moveCache = grid.moveCache; // Still valid until the copy makes a move
+	}
+	
+	/**
+	 * Sets up a board without images from Forsyth-Edwards Notation (FEN), 
+	 * used by tools that work on positions outside the GUI
+	 * Fields missing after the piece placement take their starting values
+	 * @param fen - for example "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1"
+	 * @return the board
+	 * @throws IllegalArgumentException if the piece placement is malformed
+	 */
+	public static Chessboard fromFen(String fen) throws IllegalArgumentException {
+		Chessboard grid = new Chessboard();
+		String[] fields = fen.trim().split("\\s+");
+		String[] rows = fields[0].split("/");
+		if (rows.length != 8) { throw new IllegalArgumentException("Bad FEN: " + fen); }
+		
+		for (int y = 0; y < 8; y++) {
+			int x = 0;
+			for (char c : rows[y].toCharArray()) {
+				if (Character.isDigit(c)) { // Run of empty squares
+					x += c - '0';
+					continue;
+				}
+				int type = FEN_PIECES.indexOf(Character.toLowerCase(c));
+				if (type < 0 || x > 7) { throw new IllegalArgumentException("Bad FEN: " + fen); }
+				boolean white = Character.isUpperCase(c);
+				grid.addPiece(white, x++, y, null, white ? FEN_VALUES[type] : -FEN_VALUES[type]);
+			}
+		}
+		
+		grid.setWhiteTurn(fields.length < 2 || fields[1].equals("w"));
+		
+		int rights = 0;
+		if (fields.length > 2) {
+			rights |= fields[2].contains("K") ? WHITE_KINGSIDE : 0;
+			rights |= fields[2].contains("Q") ? WHITE_QUEENSIDE : 0;
+			rights |= fields[2].contains("k") ? BLACK_KINGSIDE : 0;
+			rights |= fields[2].contains("q") ? BLACK_QUEENSIDE : 0;
+		}
+		grid.hash ^= Zobrist.castling(grid.castling) ^ Zobrist.castling(rights);
+		grid.castling = rights;
+		
+		if (fields.length > 3 && fields[3].length() == 2) { // Kept only if a pawn can actually capture
+			int x = fields[3].charAt(0) - 'a', y = '8' - fields[3].charAt(1);
+			int pawnY = grid.whiteTurn ? y + 1 : y - 1;
+			if (x >= 0 && x < 8 && pawnY >= 0 && pawnY < 8 && grid.pawnBeside(x, pawnY, grid.whiteTurn)) {
+				grid.enPassant = new Coordinate(x, y);
+				grid.hash ^= Zobrist.enPassant(x);
+			}
+		}
+		if (fields.length > 4) {
+			grid.halfmoveClock = Integer.parseInt(fields[4]);
+		}
+		return grid;
+	}
+
+	/**
+	 * Writes the board in Forsyth-Edwards Notation (FEN) so it can be read back
+	 * with fromFen - the board does not count full moves so that field is always 1
+	 * @return the FEN of the board
+	 */
+	public String toFen() {
+		StringBuilder fen = new StringBuilder();
+		for (int y = 0; y < 8; y++) {
+			int empty = 0;
+			for (int x = 0; x < 8; x++) {
+				Piece piece = pieceList[x][y];
+				if (piece == null) {
+					empty++;
+					continue;
+				}
+				if (empty > 0) { fen.append(empty); }
+				empty = 0;
+				char c = FEN_PIECES.charAt(Zobrist.index(piece.getValue()) % 6);
+				fen.append(piece.isWhite() ? Character.toUpperCase(c) : c);
+			}
+			if (empty > 0) { fen.append(empty); }
+			if (y < 7) { fen.append('/'); }
+		}
+
+		fen.append(whiteTurn ? " w " : " b ");
+		if (castling == 0) { fen.append('-'); }
+		if ((castling & WHITE_KINGSIDE) != 0) { fen.append('K'); }
+		if ((castling & WHITE_QUEENSIDE) != 0) { fen.append('Q'); }
+		if ((castling & BLACK_KINGSIDE) != 0) { fen.append('k'); }
+		if ((castling & BLACK_QUEENSIDE) != 0) { fen.append('q'); }
+		fen.append(' ').append((enPassant == null) ? "-" : "" + (char) ('a' + enPassant.getX()) + (8 - enPassant.getY()));
+		return fen.append(' ').append(halfmoveClock).append(" 1").toString();
+	}
+	
+	/**
+	 * Writes the position in four longs, the same position always giving the same
+	 * longs so they can be compared and hashed as keys
+	 * The first long has a bit set for each occupied square, bit y * 8 + x. The
+	 * next two hold the piece on each occupied square in order, four bits each
+	 * (its Zobrist.index, 0 - 11) starting from the lowest bits of the second long.
+	 * The last long holds the side to move in bit 0, the castling rights in bits 1 - 4,
+	 * the en passant file plus one in bits 5 - 8 (0 if none) and the halfmove clock
+	 * in bits 9 - 24
+	 * The positions before it are not written, so repetitions are lost
+	 * @param words
+	 * @param offset - index of the first long written
+	 * @throws IllegalStateException if the board has more than 32 pieces
+	 */
+	public void encode(long[] words, int offset) throws IllegalStateException {
+		words[offset] = occupiedWord();
+		words[offset + 1] = pieceWord(0);
+		words[offset + 2] = pieceWord(16);
+		words[offset + 3] = stateWord();
+	}
+	
+	/**
+	 * Writes the position as encode(long[], int) does, ENCODED_BYTES bytes at the
+	 * buffer's position in the buffer's byte order
+	 * @param buffer
+	 * @throws IllegalStateException if the board has more than 32 pieces
+	 */
+	public void encode(ByteBuffer buffer) throws IllegalStateException {
+		buffer.putLong(occupiedWord()).putLong(pieceWord(0)).putLong(pieceWord(16)).putLong(stateWord());
 	}
 	
+	/**
+	 * Sets up a board without images from a position written by encode
+	 * @param words
+	 * @param offset - index of the first long read
+	 * @return the board
+	 * @throws IllegalArgumentException if the longs do not hold a position
+	 */
+	public static Chessboard decode(long[] words, int offset) throws IllegalArgumentException {
+		return decode(words[offset], words[offset + 1], words[offset + 2], words[offset + 3]);
+	}
+	
+	/**
+	 * Sets up a board without images from ENCODED_BYTES bytes written by
+	 * encode(ByteBuffer), read at the buffer's position in the buffer's byte order
+	 * @param buffer
+	 * @return the board
+	 * @throws IllegalArgumentException if the bytes do not hold a position
+	 */
+	public static Chessboard decode(ByteBuffer buffer) throws IllegalArgumentException {
+		return decode(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+	}
+	
+	/**
+	 * @param occupied - bit set for each occupied square
+	 * @param low - first 16 pieces
+	 * @param high - last 16 pieces
+	 * @param state - side to move, castling rights, en passant file and halfmove clock
+	 * @return the board
+	 * @throws IllegalArgumentException if the longs do not hold a position
+	 */
+	private static Chessboard decode(long occupied, long low, long high, long state) throws IllegalArgumentException {
+		if (Long.bitCount(occupied) > 32) { throw new IllegalArgumentException("More than 32 pieces"); }
+		
+		Chessboard grid = new Chessboard();
+		int count = 0;
+		for (long rest = occupied; rest != 0; rest &= rest - 1) {
+			int square = Long.numberOfTrailingZeros(rest);
+			int type = (int) (((count < 16) ? low >>> (count * 4) : high >>> ((count - 16) * 4)) & 15);
+			if (type > 11) { throw new IllegalArgumentException("Bad piece " + type); }
+			boolean white = type < 6;
+			grid.addPiece(white, square & 7, square >>> 3, null, white ? FEN_VALUES[type] : -FEN_VALUES[type - 6]);
+			count++;
+		}
+		
+		grid.setWhiteTurn((state & 1) == 0);
+		int rights = (int) (state >>> 1) & 15;
+		grid.hash ^= Zobrist.castling(grid.castling) ^ Zobrist.castling(rights);
+		grid.castling = rights;
+		int file = (int) (state >>> 5) & 15;
+		if (file > 8) { throw new IllegalArgumentException("Bad en passant file " + file); }
+		if (file > 0) {
+			grid.enPassant = new Coordinate(file - 1, grid.whiteTurn ? 2 : 5);
+			grid.hash ^= Zobrist.enPassant(file - 1);
+		}
+		grid.halfmoveClock = (int) (state >>> 9) & 0xFFFF;
+		return grid;
+	}
+	
+	/**
+	 * @return bit y * 8 + x set for each occupied square
+	 * @throws IllegalStateException if the board has more than 32 pieces
+	 */
+	private long occupiedWord() throws IllegalStateException {
+		long occupied = colorBoards[0] | colorBoards[1];
+		if (Long.bitCount(occupied) > 32) { throw new IllegalStateException("More than 32 pieces"); }
+		return occupied;
+	}
+	
+	/**
+	 * @param first - number of pieces skipped, in square order
+	 * @return index of the next 16 pieces, four bits each from the lowest bits
+	 */
+	private long pieceWord(int first) {
+		long word = 0;
+		int count = 0;
+		for (long rest = colorBoards[0] | colorBoards[1]; rest != 0 && count < first + 16; rest &= rest - 1, count++) {
+			if (count >= first) { word |= (long) pieceIndex(rest & -rest) << ((count - first) * 4); }
+		}
+		return word;
+	}
+	
+	/**
+	 * @return side to move, castling rights, en passant file plus one and halfmove clock
+	 */
+	private long stateWord() {
+		return (whiteTurn ? 0 : 1) | (castling << 1) | ((enPassant == null) ? 0 : (enPassant.getX() + 1) << 5) 
+				| ((long) Math.min(halfmoveClock, 0xFFFF) << 9);
+	}
+	
+	/**
+	 * @param bit - bitboard of an occupied square
+	 * @return index of the piece on it, as Zobrist.index gives
+	 */
+	private int pieceIndex(long bit) {
+		for (int i = 0; i < 12; i++) {
+			if ((pieceBoards[i] & bit) != 0) { return i; }
+		}
+		throw new IllegalStateException("Bitboards out of step");
+	}
+
 	/**
 	 * Adds a piece to the board
 	 * @param white
@@ -82,7 +367,39 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	public void addPiece(boolean white, int x, int y, ImageView image, int value) {
 		Coordinate imC = new Coordinate(x, y);
 		Piece piece = new Piece(white, image, imC, value);
+		if (pieceList[x][y] != null) { lift(pieceList[x][y].getValue(), x, y); }
 		pieceList[x][y] = piece;
+		place(value, x, y);
+	}
+	
+	/**
+	 * Adds a piece standing on (x, y) to the bitboards, the hash and the network's hidden layer
+	 * @param value - signed value of the piece
+	 * @param x
+	 * @param y
+	 */
+	private void place(int value, int x, int y) {
+		long bit = Bitboards.bit(x, y);
+		pieceBoards[Zobrist.index(value)] |= bit;
+		colorBoards[(value > 0) ? 0 : 1] |= bit;
+		hash ^= Zobrist.piece(value, x, y);
+		if (Math.abs(value) == PAWN) { pawnHash ^= Zobrist.piece(value, x, y); }
+		if (accumulator != null) { accumulator.add(value, x, y); }
+	}
+	
+	/**
+	 * Takes a piece standing on (x, y) out of the bitboards, the hash and the network's hidden layer
+	 * @param value - signed value of the piece
+	 * @param x
+	 * @param y
+	 */
+	private void lift(int value, int x, int y) {
+		long bit = Bitboards.bit(x, y);
+		pieceBoards[Zobrist.index(value)] &= ~bit;
+		colorBoards[(value > 0) ? 0 : 1] &= ~bit;
+		hash ^= Zobrist.piece(value, x, y);
+		if (Math.abs(value) == PAWN) { pawnHash ^= Zobrist.piece(value, x, y); }
+		if (accumulator != null) { accumulator.remove(value, x, y); }
 	}
 	
 	/**
@@ -96,7 +413,8 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	}
 	
 	/** 
-	 * Moves a piece from (fromX, fromY) to (toX, toY) on the board
+	 * Moves a piece from (fromX, fromY) to (toX, toY) on the board, promoting
+	 * a pawn that reaches the end of the board to a queen
 	 * @param fromX
 	 * @param fromY
 	 * @param toX
@@ -105,13 +423,288 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 * false otherwise
 	 */
 	public boolean movePiece(int fromX, int fromY, int toX, int toY) {
+		return movePiece(fromX, fromY, toX, toY, QUEEN);
+	}
+	
+	/**
+	 * Plays the given move on the board
+	 * @param move
+	 * @return true only when a pawn has moved to the end of the board, 
+	 * false otherwise
+	 */
+	public boolean makeMove(Move move) {
+		int promotion = (move.getPromotion() != 0) ? move.getPromotion() : QUEEN;
+		return movePiece(move.getFrom().getX(), move.getFrom().getY(), move.getTo().getX(), move.getTo().getY(), promotion);
+	}
+	
+	/** 
+	 * Moves a piece from (fromX, fromY) to (toX, toY) on the board
+	 * Also moves the rook when castling, removes the pawn captured en passant,
+	 * and keeps the castling rights, en passant square, clocks and hash up to date
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @param promotion - absolute value of the piece a pawn reaching the end of the
+	 * board becomes
+	 * @return true only when a pawn has moved to the end of the board, 
+	 * false otherwise
+	 */
+	public boolean movePiece(int fromX, int fromY, int toX, int toY, int promotion) {
 		Piece copy = pieceList[fromX][fromY];
+		Piece captured = capturedPiece(fromX, fromY, toX, toY);
+		int value = copy.getValue(), type = Math.abs(value);
+		long previous = hash;
+		
+		lift(value, fromX, fromY);
+		if (captured != null) { // Removes the captured piece, which is behind the target square if en passant
+			Coordinate co = captured.getLocation();
+			lift(captured.getValue(), co.getX(), co.getY());
+			pieceList[co.getX()][co.getY()] = null;
+		}
+		
+		if (type == KING && Math.abs(toX - fromX) == 2) { // Castling also moves the rook next to the king
+			int rookFrom = (toX > fromX) ? 7 : 0, rookTo = (toX > fromX) ? 5 : 3;
+			Piece rook = pieceList[rookFrom][fromY];
+			pieceList[rookFrom][fromY] = null;
+			pieceList[rookTo][fromY] = rook;
+			rook.setLocation(rookTo, fromY);
+			lift(rook.getValue(), rookFrom, fromY);
+			place(rook.getValue(), rookTo, fromY);
+		}
+		
 		pieceList[fromX][fromY] = null;
 		pieceList[toX][toY] = copy;
 		copy.setLocation(toX, toY);
 		
 		// white or black pawn reached end of board if true
-		return (copy.getValue() == 1 && toY == 0) || (copy.getValue() == -1 && toY == 7);
+		boolean promoted = (value == PAWN && toY == 0) || (value == -PAWN && toY == 7);
+		if (promoted) { // The pawn keeps its image so the view can swap it for the new piece
+			copy = new Piece(copy.isWhite(), copy.getImage(), new Coordinate(toX, toY), copy.isWhite() ? promotion : -promotion);
+			pieceList[toX][toY] = copy;
+		}
+		place(copy.getValue(), toX, toY);
+		
+		/* Moving a king or rook, or capturing a rook, loses castling rights */
+		int rights = castling & castlingMask(fromX, fromY) & castlingMask(toX, toY);
+		hash ^= Zobrist.castling(castling) ^ Zobrist.castling(rights);
+		boolean lostRights = rights != castling;
+		castling = rights;
+		
+		if (enPassant != null) { hash ^= Zobrist.enPassant(enPassant.getX()); }
+		enPassant = null;
+		if (type == PAWN && Math.abs(toY - fromY) == 2 && pawnBeside(toX, toY, !copy.isWhite())) { // Only if it can be captured
+			enPassant = new Coordinate(toX, (fromY + toY) / 2);
+			hash ^= Zobrist.enPassant(toX);
+		}
+		
+		whiteTurn = !whiteTurn;
+		hash ^= Zobrist.blackToMove();
+		
+		/* Positions before a capture, pawn move or loss of castling rights can never repeat */
+		if (captured != null || type == PAWN) {
+			halfmoveClock = 0;
+			historySize = 0;
+		} else {
+			halfmoveClock++;
+			if (lostRights) {
+				historySize = 0;
+			} else {
+				if (historySize == history.length) { history = Arrays.copyOf(history, historySize * 2); }
+				history[historySize++] = previous;
+			}
+		}
+		
+		return promoted;
+	}
+	
+	/**
+	 * Finds the piece that would be captured by moving from (fromX, fromY) to
+	 * (toX, toY), including a pawn captured en passant
+	 * @param fromX
+	 * @param fromY
+	 * @param toX
+	 * @param toY
+	 * @return the captured piece, null if the move is not a capture
+	 */
+	public Piece capturedPiece(int fromX, int fromY, int toX, int toY) {
+		Piece piece = pieceList[fromX][fromY];
+		if (pieceList[toX][toY] != null) {
+			return pieceList[toX][toY];
+		}
+		if (Math.abs(piece.getValue()) == PAWN && fromX != toX) { // Diagonal pawn move onto an empty square
+			return pieceList[toX][fromY];
+		}
+		return null;
+	}
+	
+	/**
+	 * @param x
+	 * @param y
+	 * @return the castling rights that survive a move from or to (x, y)
+	 */
+	private int castlingMask(int x, int y) {
+		if (y == 7) {
+			if (x == 4) { return ~(WHITE_KINGSIDE | WHITE_QUEENSIDE); }
+			if (x == 7) { return ~WHITE_KINGSIDE; }
+			if (x == 0) { return ~WHITE_QUEENSIDE; }
+		} else if (y == 0) {
+			if (x == 4) { return ~(BLACK_KINGSIDE | BLACK_QUEENSIDE); }
+			if (x == 7) { return ~BLACK_KINGSIDE; }
+			if (x == 0) { return ~BLACK_QUEENSIDE; }
+		}
+		return ~0;
+	}
+	
+	/**
+	 * @param x
+	 * @param y
+	 * @param white - color of the pawn being looked for
+	 * @return true if a pawn of the given color stands directly beside (x, y)
+	 */
+	private boolean pawnBeside(int x, int y, boolean white) {
+		int target = white ? PAWN : -PAWN;
+		return (x > 0 && pieceList[x - 1][y] != null && pieceList[x - 1][y].getValue() == target)
+				|| (x < 7 && pieceList[x + 1][y] != null && pieceList[x + 1][y].getValue() == target);
+	}
+	
+	/**
+	 * Passes the turn to the other side without moving, used by the search to
+	 * test whether a position is so good that even doing nothing beats beta
+	 */
+	public void makeNullMove() {
+		if (enPassant != null) { hash ^= Zobrist.enPassant(enPassant.getX()); }
+		enPassant = null;
+		whiteTurn = !whiteTurn;
+		hash ^= Zobrist.blackToMove();
+		halfmoveClock++;
+		historySize = 0; // Positions on either side of a null move are not real repetitions
+	}
+	
+	/**
+	 * @return true if it is white's turn to move
+	 */
+	public boolean isWhiteTurn() {
+		return whiteTurn;
+	}
+	
+	/**
+	 * Sets the side to move, used when setting up a position
+	 * @param white
+	 */
+	public void setWhiteTurn(boolean white) {
+		if (white != whiteTurn) {
+			whiteTurn = white;
+			hash ^= Zobrist.blackToMove();
+		}
+	}
+	
+	/**
+	 * @return castling rights still available as bit flags
+	 */
+	public int getCastling() {
+		return castling;
+	}
+	
+	/**
+	 * @return square a pawn may capture onto en passant, null if none
+	 */
+	public Coordinate getEnPassant() {
+		return enPassant;
+	}
+	
+	/**
+	 * @return number of plies since the last capture or pawn move
+	 */
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+	
+	/**
+	 * @return Zobrist hash of the position
+	 */
+	public long getHash() {
+		return hash;
+	}
+	
+	/**
+	 * @return Zobrist hash of the pawns alone
+	 */
+	public long getPawnHash() {
+		return pawnHash;
+	}
+	
+	/**
+	 * @return the table pawn structures are cached in, for its statistics
+	 */
+	public static PawnTable getPawnTable() {
+		return pawnTable;
+	}
+	
+	/**
+	 * Replaces the pawn structure table with an empty one
+	 * @param size - number of entries, rounded down to a power of two
+	 */
+	public static void setPawnTableSize(int size) {
+		pawnTable = new PawnTable(size);
+	}
+	
+	/**
+	 * Used by the search to score cycles as draws straight away
+	 * @return true if the position has occurred before since the last 
+	 * irreversible move
+	 */
+	public boolean isRepetition() {
+		for (int i = historySize - 4; i >= 0; i -= 2) { // Same side to move only every other ply
+			if (history[i] == hash) { return true; }
+		}
+		return false;
+	}
+	
+	/**
+	 * @return true if the position has occurred three times
+	 */
+	public boolean isThreefoldRepetition() {
+		int count = 1;
+		for (int i = historySize - 4; i >= 0; i -= 2) {
+			if (history[i] == hash && ++count == 3) { return true; }
+		}
+		return false;
+	}
+	
+	/**
+	 * @return true if fifty moves by each side passed without a capture or pawn move
+	 */
+	public boolean isFiftyMoveRule() {
+		return halfmoveClock >= 100;
+	}
+	
+	/**
+	 * @return true if neither side has enough material left to checkmate
+	 */
+	public boolean isInsufficientMaterial() {
+		int minors = 0;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				if (pieceList[x][y] != null) {
+					int type = Math.abs(pieceList[x][y].getValue());
+					if (type == KNIGHT || type == BISHOP) {
+						minors++;
+					} else if (type != KING) {
+						return false;
+					}
+				}
+			}
+		}
+		return minors <= 1; // A lone knight or bishop cannot force mate
+	}
+	
+	/**
+	 * @return true if the game is drawn by repetition, the fifty move rule or 
+	 * insufficient material
+	 */
+	public boolean isDraw() {
+		return isThreefoldRepetition() || isFiftyMoveRule() || isInsufficientMaterial();
 	}
 	
 	/**
@@ -174,12 +767,9 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 */
 	public ArrayList<Piece> getColorPieces(boolean white) {
 		ArrayList<Piece> list = new ArrayList<Piece>();
-		for (int x = 0; x < 8; x++) {
-			for (int y = 0; y < 8; y++) {
-				if (pieceList[x][y] != null && pieceList[x][y].isWhite() == white) {
-					list.add(pieceList[x][y]);
-				}
-			}
+		for (long board = colorBoards[white ? 0 : 1]; board != 0; board &= board - 1) { // Each set bit
+			int square = Long.numberOfTrailingZeros(board);
+			list.add(pieceList[square & 7][square >>> 3]);
 		}
 		return list;
 	}
@@ -191,15 +781,10 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 * @return the king piece
 	 */
 	private Piece getKing(boolean white) {
-		int target = (white) ? 200 : -200;
-		for (int x = 0; x < 8; x++) {
-			for (int y = 0; y < 8; y++) {
-				if (pieceList[x][y] != null && pieceList[x][y].getValue() == target) {
-					return pieceList[x][y];
-				}
-			}
-		}
-		return null;
+		long board = pieceBoards[Zobrist.index(white ? KING : -KING)];
+		if (board == 0) { return null; }
+		int square = Long.numberOfTrailingZeros(board);
+		return pieceList[square & 7][square >>> 3];
 	}
 
 	/**
@@ -208,15 +793,49 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 * @return true if the state of the board is in check, false otherwise
 	 */
 	public boolean isCheck(boolean white) {
-		Piece king = getKing(white);
-		for (Piece piece : getColorPieces(!white)) {
-			for (Coordinate move : getMoves(piece)) {
-				if (king.getLocation().equals(move)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		long king = pieceBoards[Zobrist.index(white ? KING : -KING)];
+		if (king == 0) { return false; }
+		return attacked(Long.numberOfTrailingZeros(king), !white, colorBoards[0] | colorBoards[1], ~0L);
+	}
+	
+	/**
+	 * @param x
+	 * @param y
+	 * @param white - true if looking for white attackers, false if black attackers
+	 * @return true if a piece of the given color attacks (x, y)
+	 */
+	public boolean isAttacked(int x, int y, boolean white) {
+		return attacked(y * 8 + x, white, colorBoards[0] | colorBoards[1], ~0L);
+	}
+	
+	/**
+	 * Looks up every kind of piece that could attack square from the square 
+	 * itself - a square is attacked by a knight if a knight on it would attack 
+	 * that knight, and the same for every other piece
+	 * @param square
+	 * @param white - true if looking for white attackers, false if black attackers
+	 * @param occupied - pieces that block sliding attacks
+	 * @param attackers - only pieces on these squares count, so a captured piece can be left out
+	 * @return true if a piece of the given color attacks square
+	 */
+	private boolean attacked(int square, boolean white, long occupied, long attackers) {
+		int side = white ? 0 : 6; // Offset of the attacking color in pieceBoards
+		long queens = pieceBoards[side + 4];
+		return (Bitboards.pawnAttacks(!white, square) & pieceBoards[side] & attackers) != 0
+				|| (Bitboards.knightAttacks(square) & pieceBoards[side + 1] & attackers) != 0
+				|| (Bitboards.kingAttacks(square) & pieceBoards[side + 5]) != 0
+				|| (Bitboards.bishopAttacks(square, occupied) & (pieceBoards[side + 2] | queens) & attackers) != 0
+				|| (Bitboards.rookAttacks(square, occupied) & (pieceBoards[side + 3] | queens) & attackers) != 0;
+	}
+	
+	/**
+	 * @param x
+	 * @param y
+	 * @param value - signed value of the piece looked for
+	 * @return true if (x, y) is on the board and holds a piece of the given value
+	 */
+	private boolean hasPiece(int x, int y, int value) {
+		return x >= 0 && x < 8 && y >= 0 && y < 8 && pieceList[x][y] != null && pieceList[x][y].getValue() == value;
 	}
 
 	/**
@@ -225,8 +844,11 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 * @return true if player is out of moves, false otherwise
 	 */
 	public boolean outOfMoves(boolean white) {
+		if (white == whiteTurn) {
+			return getLegalMoves().isEmpty();
+		}
 		for (Piece piece : getColorPieces(white)) {
-			if (reduceAndGetMoves(piece).size() != 0) { return false; }
+			if (reduceMoves(getMoves(piece), piece.getLocation(), white).size() != 0) { return false; }
 		}
 		return true;
 	}	
@@ -240,195 +862,78 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	public ArrayList<Coordinate> getMoves(Piece p) {
 		ArrayList<Coordinate> list = new ArrayList<Coordinate>();
 		Coordinate imC = p.getLocation();
-		Piece piece;
-		int value = Math.abs(p.getValue()), start, y1, y2;
+		int square = imC.getY() * 8 + imC.getX();
 		boolean white = p.isWhite();
+		long own = colorBoards[white ? 0 : 1], enemy = colorBoards[white ? 1 : 0], occupied = own | enemy, targets = 0;
 		
-		switch(value) { // Checks which piece was chosen
-		case 1:  // Pawn
-			start = white ? 6 : 1; // Starting row is 6 for white pawns and 1 for black pawns
-			y1 = white ? imC.getY() - 1 : imC.getY() + 1; // Direction pawns move based
-			y2 = white ? imC.getY() - 2 : imC.getY() + 2; // on its color
-			
-			try { // Forward movement
-				if (pieceAt(imC.getX(), y1) == null) { // No piece in front
-					list.add(new Coordinate(imC.getX(), y1));
-					if (imC.getY() == start && pieceAt(imC.getX(), y2) == null) { // No pieces two places in front and pawn in starting position 
-						list.add(new Coordinate(imC.getX(), y2));
-					}
+		switch(Math.abs(p.getValue())) { // Checks which piece was chosen
+		case PAWN:
+			int step = white ? -8 : 8, start = white ? 6 : 1; // Starting row is 6 for white pawns and 1 for black pawns
+			if ((occupied & (1L << (square + step))) == 0) { // No piece in front
+				targets |= 1L << (square + step);
+				if (imC.getY() == start && (occupied & (1L << (square + 2 * step))) == 0) { // Two places in front from the start
+					targets |= 1L << (square + 2 * step);
 				}
-			} catch (ArrayIndexOutOfBoundsException e) {} // Prevents movement off board
-			
-			try { // Diagonal movement left
-				piece = pieceAt(imC.getX() - 1, y1);
-				if (piece != null && piece.isWhite() != white) { // Opponent in range
-					list.add(new Coordinate(imC.getX() - 1, y1));
-				}
-			} catch (ArrayIndexOutOfBoundsException e) {}
-			
-			try { // diagonal movement right
-				piece = pieceAt(imC.getX() + 1, y1);
-				if (piece != null && piece.isWhite() != white) { // opponent in range
-					list.add(new Coordinate(imC.getX() + 1, y1));
-				}
-			} catch (ArrayIndexOutOfBoundsException e) {}
-			
+			}
+			targets |= Bitboards.pawnAttacks(white, square) & enemy; // Opponent in range
+			if (enPassant != null) { // Capture of a pawn that just moved two squares
+				targets |= Bitboards.pawnAttacks(white, square) & Bitboards.bit(enPassant.getX(), enPassant.getY());
+			}
 			break;
-		case 2:  // Knight
-			/* 1 O'Clock */
-			moveOne(imC.getX() + 1, imC.getY() - 2, white, list);
-			
-			/* 2 O'Clock */
-			moveOne(imC.getX() + 2, imC.getY() - 1, white, list);
-			
-			/* 4 O'Clock */
-			moveOne(imC.getX() + 2, imC.getY() + 1, white, list);
-			
-			/* 5 O'Clock */
-			moveOne(imC.getX() + 1, imC.getY() + 2, white, list);
-			
-			/* 7 O'Clock */
-			moveOne(imC.getX() - 1, imC.getY() + 2, white, list);
-			
-			/* 8 O'Clock */
-			moveOne(imC.getX() - 2, imC.getY() + 1, white, list);
-			
-			/* 10 O'Clock */
-			moveOne(imC.getX() - 2, imC.getY() - 1, white, list);
-			
-			/* 11 O'Clock */
-			moveOne(imC.getX() - 1, imC.getY() - 2, white, list);
-			
+		case KNIGHT:
+			targets = Bitboards.knightAttacks(square) & ~own;
 			break;
-		case 3:  // Bishop
-			diagonalMovement(imC, white, list);
-			
+		case BISHOP:
+			targets = Bitboards.bishopAttacks(square, occupied) & ~own;
 			break;
-		case 5:  // Rook
-			horizontalAndVertical(imC, white, list);
-			
+		case ROOK:
+			targets = Bitboards.rookAttacks(square, occupied) & ~own;
 			break;
-		case 9:  // Queen
-			horizontalAndVertical(imC, white, list);
-			diagonalMovement(imC, white, list);
-			
+		case QUEEN:
+			targets = Bitboards.queenAttacks(square, occupied) & ~own;
 			break;
-		case 200:  // King
-			for (int x = imC.getX() - 1; x <= imC.getX() + 1; x++) {  // Checks all 8 squares around king
-				for (int y = imC.getY() - 1; y <= imC.getY() + 1; y++) {
-					if (x == imC.getX() && y == imC.getY()) { continue; } // Avoids checking current position
-					moveOne(x, y, white, list);
-				}
-			}
-			
+		case KING:
+			targets = Bitboards.kingAttacks(square) & ~own;
+			castlingMoves(imC, white, list);
 			break;
 		}
 		
-		return list;
-	}
-	
-	/**
-	 * Checks to see if a position on the board is available or if the attacking piece
-	 * can capture an opposing piece in that position
-	 * @param x - x coordinate to move to
-	 * @param y - y coordinate to move to
-	 * @param white - true if the moving piece is white, false if black
-	 * @param list
-	 */
-	private void moveOne(int x, int y, boolean white, ArrayList<Coordinate> list) {
-		try {
-			Piece piece = pieceAt(x, y);
-			if (piece == null) { // Space is available if no one occupies
-				list.add(new Coordinate(x, y));
-			}
-			else if (piece.isWhite() != white) { // Space is available if occupied by opposite color
-				list.add(new Coordinate(x, y));
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {}
-	}
-	
-	/**
-	 * Same as moveOne() except indicates to the caller that you cannot keep going
-	 * @param x - x coordinate to move to
-	 * @param y - y coordinate to move to
-	 * @param white - true if attacking piece is white, false if black
-	 * @param list
-	 * @return true if a piece is in the way whether black or white, false if box is
-	 * empty
-	 */
-	private boolean moveTwo(int x, int y, boolean white, ArrayList<Coordinate> list) {
-		Piece piece = pieceAt(x, y);
-		if (piece == null) {
-			list.add(new Coordinate(x, y));
-		} else { 
-			if (piece.isWhite() != white) {
-				list.add(new Coordinate(x, y));
-			}
-			return true;
+		for (; targets != 0; targets &= targets - 1) { // Each set bit
+			int target = Long.numberOfTrailingZeros(targets);
+			list.add(new Coordinate(target & 7, target >>> 3));
 		}
-		return false;
+		return list;
 	}
 	
 	/**
-	 * Tracks all the possible boxes the piece can move into before hitting another
-	 * piece in both the vertical and horizontal directions
-	 * @param imC - coordinates of attacking piece
-	 * @param white - true if attacking piece is white, false if black
-	 * @param list
-	 */
-	private void horizontalAndVertical(Coordinate imC, boolean white, ArrayList<Coordinate> list) {
-		/* Horizontal movement right */
-		for (int x = imC.getX() + 1; x < 8; x++) {
-			if (moveTwo(x, imC.getY(), white, list)) { break; } // Stop checking if we run into a piece
-		}
-		
-		/* Horizontal movement left */
-		for (int x = imC.getX() - 1; x >= 0; x--) {
-			if (moveTwo(x, imC.getY(), white, list)) { break; }
-		}
-		
-		/* Vertical movement up */
-		for (int y = imC.getY() - 1; y >= 0; y--) {
-			if (moveTwo(imC.getX(), y, white, list)) { break; }
-		}
-		
-		/* Vertical movement down */
-		for (int y = imC.getY() + 1; y < 8; y++) {
-			if (moveTwo(imC.getX(), y, white, list)) { break; }
-		}
-	}
-
-	/**
-	 * Tracks all the possible boxes the piece can move into before hitting another
-	 * piece all diagonal directions
-	 * @param imC - coordinates of the attacking piece
-	 * @param white - true if attacking piece is white, false if black
+	 * Adds the squares the king can castle to - the king and rook must not have
+	 * moved, the squares between them must be empty, and the king may not castle
+	 * out of, through, or into check
+	 * @param imC - coordinates of the king
+	 * @param white - true if the king is white, false if black
 	 * @param list
 	 */
-	private void diagonalMovement(Coordinate imC, boolean white, ArrayList<Coordinate> list) {
-		/* Diagonal movement bottom right */
-		for (int x = imC.getX() + 1, y = imC.getY() + 1; x < 8 && y < 8; x++, y++) {
-			if (moveTwo(x, y, white, list)) { break; }
+	private void castlingMoves(Coordinate imC, boolean white, ArrayList<Coordinate> list) {
+		int y = white ? 7 : 0, rook = white ? ROOK : -ROOK;
+		int kingside = white ? WHITE_KINGSIDE : BLACK_KINGSIDE, queenside = white ? WHITE_QUEENSIDE : BLACK_QUEENSIDE;
+		if (imC.getX() != 4 || imC.getY() != y || (castling & (kingside | queenside)) == 0 || isAttacked(4, y, !white)) {
+			return;
 		}
-		
-		/* Diagonal movement top right */
-		for (int x = imC.getX() + 1, y = imC.getY() - 1; x < 8 && y >= 0; x++, y--) {
-			if (moveTwo(x, y, white, list)) { break; }
-		}
-		
-		/* Diagonal movement bottom left */
-		for (int x = imC.getX() - 1, y = imC.getY() + 1; x >= 0 && y < 8; x--, y++) {
-			if (moveTwo(x, y, white, list)) { break; }
+		if ((castling & kingside) != 0 && hasPiece(7, y, rook) && pieceList[5][y] == null && pieceList[6][y] == null
+				&& !isAttacked(5, y, !white) && !isAttacked(6, y, !white)) {
+			list.add(new Coordinate(6, y));
 		}
-		
-		/* Diagonal movement top left */
-		for (int x = imC.getX() - 1, y = imC.getY() - 1; x >= 0 && y >= 0; x--, y--) {
-			if (moveTwo(x, y, white, list)) { break; }
+		if ((castling & queenside) != 0 && hasPiece(0, y, rook) && pieceList[1][y] == null && pieceList[2][y] == null 
+				&& pieceList[3][y] == null && !isAttacked(3, y, !white) && !isAttacked(2, y, !white)) {
+			list.add(new Coordinate(2, y));
 		}
 	}
 
 	/**
 	 * Limits the highlighting of some tiles to prevent the loss of a king
+	 * Each move is tried on the bitboards alone - the king is safe if no enemy
+	 * piece, other than one the move captures, attacks it once the moving 
+	 * piece has left its square
 	 * @param moves - list of valid moves for the selected piece
 	 * @param location - coordinate of the selected piece
 	 * @param white - team color
@@ -436,133 +941,132 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 */
 	private ArrayList<Coordinate> reduceMoves(ArrayList<Coordinate> moves, Coordinate location, boolean white) {
 		ArrayList<Coordinate> list = new ArrayList<Coordinate>();
+		int from = location.getY() * 8 + location.getX();
+		long king = pieceBoards[Zobrist.index(white ? KING : -KING)];
+		if (king == 0) { return moves; } // No king to protect
+		boolean kingMove = (king & (1L << from)) != 0, pawn = Math.abs(pieceList[location.getX()][location.getY()].getValue()) == PAWN;
+		
 		for (Coordinate move : moves) {
-			Chessboard copy = new Chessboard(this); // DEEP copy of the board
-			copy.movePiece(location.getX(), location.getY(), move.getX(), move.getY());
-			if (!copy.isCheck(white)) { list.add(move); } // Only add the move if not in check after making the move
+			int to = move.getY() * 8 + move.getX();
+			long captured = 1L << to;
+			if (pawn && move.getX() != location.getX() && pieceList[move.getX()][move.getY()] == null) { // En passant
+				captured = Bitboards.bit(move.getX(), location.getY());
+			}
+			long occupied = ((colorBoards[0] | colorBoards[1]) & ~(1L << from) & ~captured) | (1L << to);
+			int kingSquare = kingMove ? to : Long.numberOfTrailingZeros(king);
+			if (!attacked(kingSquare, !white, occupied, ~captured)) { list.add(move); } // Only add the move if not in check after making the move
 		}
 		return list;
 	}
 
 	/**
-	* Calls reduceMoves after getMoves
+	* Calls reduceMoves after getMoves, or looks the piece's moves up in the
+	* legal moves of the position when it belongs to the side to move
 	* @param piece - selected piece
 	* @return list of coordinates the selected piece is allowed to move to
 	*/
 	public ArrayList<Coordinate> reduceAndGetMoves(Piece piece) {
-		return reduceMoves(getMoves(piece), piece.getLocation(), piece.isWhite());
+		if (piece.isWhite() != whiteTurn) {
+			return reduceMoves(getMoves(piece), piece.getLocation(), piece.isWhite());
+		}
+		ArrayList<Coordinate> list = new ArrayList<Coordinate>();
+		for (Move move : getLegalMoves()) {
+			if (move.getFrom().equals(piece.getLocation()) && !list.contains(move.getTo())) { // Promotions share a square
+				list.add(move.getTo());
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Collects every legal move for one side, with a separate move for each
+	 * piece a pawn can be promoted to
+	 * @param white - true for white's moves, false for black's
+	 * @return list of legal moves
+	 */
+	public ArrayList<Move> getLegalMoves(boolean white) {
+		ArrayList<Move> list = new ArrayList<Move>();
+		for (Piece piece : getColorPieces(white)) {
+			Coordinate imC = piece.getLocation();
+			boolean pawn = Math.abs(piece.getValue()) == PAWN;
+			for (Coordinate move : reduceMoves(getMoves(piece), imC, white)) {
+				if (pawn && (move.getY() == 0 || move.getY() == 7)) { // Underpromotions are searched as well
+					for (int promotion : PROMOTIONS) {
+						list.add(new Move(imC, move, promotion));
+					}
+				} else {
+					list.add(new Move(imC, move));
+				}
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Legal moves of the side to move, generated the first time they are asked
+	 * for in a position and shared by every later caller until a move is made -
+	 * highlighting, the end of game checks and the root of the search
+	 * @return unmodifiable list of legal moves
+	 */
+	public List<Move> getLegalMoves() {
+		MoveCache cache = moveCache;
+		if (cache == null || cache.hash != hash) {
+			cache = new MoveCache(hash, Collections.unmodifiableList(getLegalMoves(whiteTurn)));
+			moveCache = cache;
+		}
+		return cache.moves;
 	}
 
 	/**
 	 * Performs AI algorithm to make computer think ahead and score all possible
 	 * moves up to depth
 	 * @param depth
-	 * @return tuple of (bestImage, [bestPiece, bestLabel])
-	 */
-	public Pair<ImageView, ArrayList<Coordinate>> dfs(int depth) {
-		ImageView bestImage = null;
-		Coordinate bestPiece = null, bestLabel = null;
-		Integer min = Integer.MAX_VALUE, curr;  // Impossible value
-		for (Piece piece : getColorPieces(false)) { // Get black pieces
-			Coordinate imC = piece.getLocation(); // Coordinates of each black piece
-			for (Coordinate move : reduceAndGetMoves(piece)) {	// Look at all moves for each black piece
-				Chessboard copy = new Chessboard(this); // DEEP copy of the board
-				copy.movePiece(imC.getX(), imC.getY(), move.getX(), move.getY()); // Updates the copy according to each move
-				curr = alphabeta(copy, depth - 1, true, min); // Searches deeper with new copy, smaller depth, switches color to white
-				if (curr < min || curr == Integer.MAX_VALUE) { // If the score found from searching deeper is better than the best score for the computer then update the best score
-					min = curr;
-					bestPiece = imC;
-					bestLabel = move;
-					bestImage = piece.getImage();
-				} 
-			}
-		}
+	 * @return the best move, its score, and the line of play expected after it
+	 */
+	public SearchResult dfs(int depth) {
 		
 		//ChessUtils.writeToFile("movedata.txt", grid.toString()); // Key
 		//ChessUtils.writeToFile("movedata.txt", bestPiece.toString() + " " + bestLabel.toString()); // Value
 		
-		ArrayList<Coordinate> cos = new ArrayList<Coordinate>();
-		cos.add(bestPiece);
-		cos.add(bestLabel);
-		return new Pair<ImageView, ArrayList<Coordinate>>(bestImage, cos);
+		return dfs(depth, false);
+	}
+	
+	/**
+	 * Searches for the computer at a strength level, which caps the depth, the
+	 * positions visited and the time taken
+	 * @param level
+	 * @return the move chosen, its score, and the line of play expected after it
+	 */
+	public SearchResult dfs(Level level) {
+		Search search = new Search();
+		search.setLevel(level);
+		return dfs(level.getDepth(), false, search);
 	}
 	
 	/**
 	 * Call when trying to make the AI play itself
 	 * @param depth
 	 * @param white - initial color making the move
-	 * @return tuple of (bestImage, [bestPiece, bestLabel])
-	 */
-	public Pair<ImageView, ArrayList<Coordinate>> dfs(int depth, boolean white) {
-		ImageView bestImage = null;
-		Coordinate bestPiece = null, bestLabel = null;
-		Integer minmax = (white) ? Integer.MIN_VALUE : Integer.MAX_VALUE, curr;  // Impossible value
-		for (Piece piece : getColorPieces(white)) { // Get black pieces
-			Coordinate imC = piece.getLocation(); // Coordinates of each black piece
-			for (Coordinate move : reduceAndGetMoves(piece)) {	// Look at all moves for each black piece
-				Chessboard copy = new Chessboard(this); // DEEP copy of the board
-				copy.movePiece(imC.getX(), imC.getY(), move.getX(), move.getY()); // Updates the copy according to each move
-				curr = alphabeta(copy, depth - 1, !white, minmax); // Searches deeper with new copy, smaller depth, switches color to white
-				if (white) { // MAX node
-					if (curr >= minmax) { // Update MAX node
-						minmax = curr; 
-						bestPiece = imC;
-						bestLabel = move;
-						bestImage = piece.getImage();
-					} 
-				}
-				else { // MIN node
-					if (curr <= minmax) { // Update MIN node
-						minmax = curr; 
-						bestPiece = imC;
-						bestLabel = move;
-						bestImage = piece.getImage();
-					} 
-				}
-			}
-		}
-		
-		ArrayList<Coordinate> cos = new ArrayList<Coordinate>();
-		cos.add(bestPiece);
-		cos.add(bestLabel);
-		return new Pair<ImageView, ArrayList<Coordinate>>(bestImage, cos);
+	 * @return the best move, its score, and the line of play expected after it
+	 */
+	public SearchResult dfs(int depth, boolean white) {
+		return dfs(depth, white, new Search());
 	}
 	
 	/**
-	 * Assists in AI search
-	 * @param grid
+	 * Searches with the given search, which decides which selective search
+	 * features are used
 	 * @param depth
-	 * @param white - true if piece is white, false if black
-	 * @param root - the best score of the parent move used to limit search space
-	 * @return score for the move
+	 * @param white - initial color making the move
+	 * @param search
+	 * @return the best move, its score, and the line of play expected after it
 	 */
-	private Integer alphabeta(Chessboard grid, int depth, boolean white, int root) {
-		if (depth == 0) { // Base case - don't go any further
-			return grid.score(); // Return score of the board
-		} else {
-			Integer minmax = white ? Integer.MIN_VALUE : Integer.MAX_VALUE, curr;
-			for (Piece piece : grid.getColorPieces(white)) { // Iterates through all pieces of a certain color
-				Coordinate imC = piece.getLocation();
-				for (Coordinate move : grid.reduceAndGetMoves(piece)) { // Looks at all moves for each piece of designated color
-					Chessboard copy = new Chessboard(grid); // DEEP copy of the board
-					copy.movePiece(imC.getX(), imC.getY(), move.getX(), move.getY()); // Updates the copy based on move
-					curr = alphabeta(copy, depth - 1, !white, minmax); // Searches one step further
-					if (white) { // MAX node
-						if (curr > minmax) { minmax = curr; } // Update MAX node
-						if (minmax >= root) { return minmax; } // Beta cutoff - no need to keep searching
-					}
-					else { // MIN node
-						if (curr < minmax) { minmax = curr; } // Update MIN node
-						if (minmax <= root) { return minmax; } // Alpha cutoff - no need to keep searching
-					}
-				}
-			}
-			return minmax; // Return best score found for either MIN or MAX node
-		}
+	public SearchResult dfs(int depth, boolean white, Search search) {
+		return search.search(this, depth, white);
 	}
 	
 	/**
-	 * Scores the board by taking the sum of the values of all pieces on the board
+	 * Scores the board by taking the sum of the weights of all pieces on the board
 	 * @return the material score of the board
 	 */
 	private Integer materialScore() {
@@ -570,7 +1074,7 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 		for (int x = 0; x < 8; x++) {
 			for (int y = 0; y < 8; y++) {
 				if (pieceList[x][y] != null) {
-					sum += pieceList[x][y].getValue();
+					sum += Weights.piece(pieceList[x][y].getValue());
 				}
 			}
 		}
@@ -583,24 +1087,159 @@ public class Chessboard extends GridPane { // Adds to original GridPane GUI
 	 * @return the mobility score of the board
 	 */
 	private Integer mobilityScore() {
-		int humanMoves = 0, compMoves = 0, mobilityWeight = 10;  // mobilityWeight is 1/10 so score is divided by 10
+		return mobility() * Weights.get(Weights.MOBILITY);
+	}
+	
+	/**
+	 * @return number of legal moves white has minus the number black has
+	 */
+	private int mobility() {
+		int humanMoves = 0, compMoves = 0;
 		
 		for (Piece piece : getColorPieces(true)) { // All white pieces
-			humanMoves += reduceAndGetMoves(piece).size();
+			humanMoves += reduceMoves(getMoves(piece), piece.getLocation(), true).size();
 		}
 		for (Piece piece : getColorPieces(false)) { // All black pieces
-			compMoves += reduceAndGetMoves(piece).size();
+			compMoves += reduceMoves(getMoves(piece), piece.getLocation(), false).size();
 		}
 		
-		return (humanMoves - compMoves) / mobilityWeight;
+		return humanMoves - compMoves;
 	}
 
 	/**
-	* sum of the material score and mobility score 
-	* @return the score of the board
+	 * Scores the doubled, isolated and passed pawns from the pawn table, counting
+	 * them only when the structure is not there yet, and the pawns sheltering 
+	 * each king, which depend on where the kings are so are not cached
+	 * @return the pawn structure score of the board
+	 */
+	private Integer pawnScore() {
+		int packed = pawnTable.probe(pawnHash);
+		if (packed == PawnTable.MISS) {
+			packed = packPawnCounts(pawnCounts());
+			pawnTable.store(pawnHash, packed);
+		}
+		return unpack(packed, 0) * Weights.get(Weights.DOUBLED) + unpack(packed, 1) * Weights.get(Weights.ISOLATED)
+				+ unpack(packed, 2) * Weights.get(Weights.PASSED) + pawnShield() * Weights.get(Weights.SHIELD);
+	}
+	
+	/**
+	 * Counts pawn structure features for both sides
+	 * @return white minus black counts of doubled, isolated and passed pawns
+	 */
+	private int[] pawnCounts() {
+		int[][] files = new int[2][8]; // Pawns on each file, white then black
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				if (pieceList[x][y] != null && Math.abs(pieceList[x][y].getValue()) == PAWN) {
+					files[pieceList[x][y].isWhite() ? 0 : 1][x]++;
+				}
+			}
+		}
+		
+		int[] counts = new int[3];
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = pieceList[x][y];
+				if (piece == null || Math.abs(piece.getValue()) != PAWN) { continue; }
+				int side = piece.isWhite() ? 0 : 1, sign = piece.isWhite() ? 1 : -1;
+				if (files[side][x] > 1) { counts[0] += sign; } // Doubled
+				if ((x == 0 || files[side][x - 1] == 0) && (x == 7 || files[side][x + 1] == 0)) { counts[1] += sign; } // Isolated
+				if (isPassed(x, y, piece.isWhite())) { counts[2] += sign; }
+			}
+		}
+		return counts;
+	}
+	
+	/**
+	 * @param x
+	 * @param y
+	 * @param white - color of the pawn
+	 * @return true if no enemy pawn is in front of the pawn on its file or the files beside it
+	 */
+	private boolean isPassed(int x, int y, boolean white) {
+		int enemy = white ? -PAWN : PAWN, step = white ? -1 : 1;
+		for (int file = Math.max(x - 1, 0); file <= Math.min(x + 1, 7); file++) {
+			for (int row = y + step; row >= 0 && row < 8; row += step) {
+				if (hasPiece(file, row, enemy)) { return false; }
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return white minus black count of pawns on the two rows in front of their king
+	 */
+	private int pawnShield() {
+		int shield = 0;
+		for (int side = 0; side < 2; side++) {
+			boolean white = side == 0;
+			Piece king = getKing(white);
+			if (king == null) { continue; }
+			int kx = king.getLocation().getX(), ky = king.getLocation().getY(), step = white ? -1 : 1;
+			for (int x = Math.max(kx - 1, 0); x <= Math.min(kx + 1, 7); x++) {
+				for (int y = ky + step; y != ky + 3 * step && y >= 0 && y < 8; y += step) {
+					if (hasPiece(x, y, white ? PAWN : -PAWN)) { shield += white ? 1 : -1; }
+				}
+			}
+		}
+		return shield;
+	}
+	
+	/**
+	 * Packs three counts between -128 and 127 into one int
+	 * @param counts
+	 * @return the packed counts
+	 */
+	private static int packPawnCounts(int[] counts) {
+		return (counts[0] & 0xFF) | (counts[1] & 0xFF) << 8 | (counts[2] & 0xFF) << 16;
+	}
+	
+	/**
+	 * @param packed
+	 * @param index
+	 * @return the count at index
+	 */
+	private static int unpack(int packed, int index) {
+		return (byte) (packed >> (index * 8));
+	}
+
+	/**
+	* sum of the material score, mobility score and pawn structure score, in 
+	* centipawns, or the score of the neural network evaluator when a network 
+	* is loaded
+	* @return the score of the board from white's point of view
 	*/
 	public Integer score() {
-		return materialScore() + mobilityScore();
+		if (accumulator != null) {
+			int score = accumulator.getNetwork().evaluate(accumulator, whiteTurn); // Side to move's point of view
+			return whiteTurn ? score : -score;
+		}
+		return materialScore() + mobilityScore() + pawnScore();
+	}
+	
+	/**
+	 * Counts the terms the score is made of, so that score() is the sum of each 
+	 * feature times the weight with the same index in Weights
+	 * Used by the tuner to fit the weights
+	 * @return white's count minus black's count of each feature
+	 */
+	public int[] features() {
+		int[] features = new int[Weights.COUNT];
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = pieceList[x][y];
+				if (piece != null && Weights.index(piece.getValue()) >= 0) { // Kings are not counted
+					features[Weights.index(piece.getValue())] += piece.isWhite() ? 1 : -1;
+				}
+			}
+		}
+		features[Weights.MOBILITY] = mobility();
+		int[] counts = pawnCounts();
+		features[Weights.DOUBLED] = counts[0];
+		features[Weights.ISOLATED] = counts[1];
+		features[Weights.PASSED] = counts[2];
+		features[Weights.SHIELD] = pawnShield();
+		return features;
 	}
 
 	
@@ -0,0 +1,93 @@
+/**
+ * @author Danny Cummings
+ * This class holds the strength levels of the computer player - how deep it
+ * may search, how many positions it may visit, how long it may think, and
+ * how often it plays a move that is not quite the best
+ * The node budget and time cap are checked by the search on every position
+ * it visits, so a level puts a hard ceiling on the CPU one move can cost:
+ * the time cap, plus at most one clock check interval, plus the first
+ * depth which always completes so there is a move to play (one node per
+ * root move, a few hundred at most). Search runs on one thread, and
+ * MonteCarlo divides the time cap between its threads, so the CPU time of
+ * all threads together never exceeds the cap. A game costs at most the per
+ * move ceiling times the number of moves the computer makes
+ * A computer that ponders (see Ponderer) starts the clock when it starts
+ * pondering, so a ponder hit stays within the ceiling. A miss throws the
+ * pondering away and searches the real position afresh, so that move can
+ * cost up to twice the ceiling
+ * Weaker levels search a few lines at the root and pick one at random
+ * among those scoring within a margin of the best
+ */
+package model;
+
+public enum Level {
+
+	/** Depth 2, 1000 nodes, at most 100ms a move, picks among 4 lines within 150 centipawns */
+	BEGINNER(2, 1000, 100, 4, 150),
+
+	/** Depth 3, 5000 nodes, at most 300ms a move, picks among 3 lines within 50 centipawns */
+	CASUAL(3, 5000, 300, 3, 50),
+
+	/** Depth 4, 25000 nodes, at most 1s a move, picks among 2 lines within 15 centipawns */
+	CLUB(4, 25000, 1000, 2, 15),
+
+	/** Depth 6, 150000 nodes, at most 5s a move, always plays the best line */
+	EXPERT(6, 150000, 5000, 1, 0);
+
+	private final int depth, lines, margin;
+	private final long nodes, millis;
+
+	/**
+	 * @param depth - deepest iteration
+	 * @param nodes - positions visited before the search stops
+	 * @param millis - time before the search stops
+	 * @param lines - lines searched at the root to choose from
+	 * @param margin - centipawns below the best line a chosen line may score
+	 */
+	private Level(int depth, long nodes, long millis, int lines, int margin) {
+		this.depth = depth;
+		this.nodes = nodes;
+		this.millis = millis;
+		this.lines = lines;
+		this.margin = margin;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	public int getMargin() {
+		return margin;
+	}
+
+	/**
+	 * @param moves - moves the computer makes in the game
+	 * @return the most milliseconds of CPU the computer's moves can cost, leaving
+	 * out the first depth of each move which is always searched
+	 */
+	public long getGameMillis(int moves) {
+		return getGameMillis(moves, false);
+	}
+
+	/**
+	 * @param moves - moves the computer makes in the game
+	 * @param pondering - true if the computer ponders, so every move may be a miss
+	 * @return the most milliseconds of CPU the computer's moves can cost, leaving
+	 * out the first depth of each move which is always searched
+	 */
+	public long getGameMillis(int moves, boolean pondering) {
+		return millis * moves * (pondering ? 2 : 1);
+	}
+}
@@ -0,0 +1,434 @@
+/**
+ * @author Danny Cummings
+ * This class finds forced mates with proof-number search, which is far
+ * quicker at it than a full-width alpha-beta search to the mate depth
+ * Every node of the tree keeps a proof number - how many leaves still have
+ * to be shown to be mates to prove the attacker mates from it - and a
+ * disproof number - how many have to be shown not to be. The search always
+ * expands the most proving leaf, the one reached by following the smallest
+ * proof number at the attacker's nodes and the smallest disproof number at
+ * the defender's, so it heads straight for the narrowest lines
+ * New nodes start from their number of legal moves, so defenders with few
+ * replies and attackers with many options look promising first
+ * The tree is kept in a pool of primitive arrays with a node limit, and the
+ * subtree of every node shown not to lead to mate is handed back to the
+ * pool. Positions are not stored, they are replayed from the root along the
+ * path to the leaf being expanded
+ * The parallel variant solves each of the attacker's first moves in its own
+ * tree, stopping the rest once one is proven. Each thread reuses one pool
+ * for the trees it solves, so the threads together hold no more nodes than
+ * the solver's limit
+ *
+ * Run: java model.MateSolver "fen" moves [nodes] [threads]
+ * It prints the mating line, or that there is no mate within the moves
+ */
+package model;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/* Utility Classes */
+import utils.ChessUtils;
+
+public class MateSolver {
+
+	public static final int DEFAULT_NODES = 1 << 20; // Nodes in the pool, 28 bytes each
+
+	private static final int INFINITY = Integer.MAX_VALUE / 2, // Proof or disproof number of a solved node
+							NONE = -1; // No node
+
+	/* The node pool, node i is index i of every array, made by the first solve */
+	private final int maxNodes;
+	private int[] proof, disproof;
+	private int[] parent, child, sibling; // First child and next sibling, NONE if there are none
+	private int[] move;  // Move that reaches the node - from square, to square and promotion
+	private int[] ply;   // Distance from the root
+	private int size = 0;      // Nodes ever taken from the pool
+	private int free = NONE;   // Nodes handed back, linked through sibling
+
+	private boolean rootOr;    // True if the attacker moves at the root
+	private int maxPly;        // The defender must be mated before this ply
+	private long nodes = 0;    // Nodes created
+	private boolean complete = true; // False if the last solve ran out of nodes or was stopped
+	private volatile boolean stopped = false;
+	private volatile AtomicBoolean cancel = null; // Shared by the trees of a parallel solve
+
+	/**
+	 * What a tree of a parallel solve found, kept once its pool is reused
+	 */
+	private static class Tree {
+		private List<Move> found = null; // Mating line from the root, null if not proven
+		private long nodes;
+		private boolean complete;
+	}
+
+	/**
+	 * @param maxNodes - most nodes the tree may hold at once
+	 */
+	public MateSolver(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	public MateSolver() {
+		this(DEFAULT_NODES);
+	}
+
+	/**
+	 * @return nodes created by the last solve
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return true if the last solve finished, so "no mate" was proven rather
+	 * than given up on
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Ends the solve as soon as possible, safe to call from any thread
+	 */
+	public void stop() {
+		stopped = true;
+		AtomicBoolean trees = cancel;
+		if (trees != null) { trees.set(true); }
+	}
+
+	/**
+	 * Looks for a mate by the side to move within the given number of its moves
+	 * @param grid
+	 * @param mateIn - moves of the side to move
+	 * @return the mating line with the defender's longest resistance, its score
+	 * and length, or a null best move if there is no mate within mateIn moves
+	 * (or the solve was not complete)
+	 */
+	public SearchResult solve(Chessboard grid, int mateIn) {
+		boolean proven = prove(grid, true, 2 * mateIn);
+		return result(proven ? line() : null, mateIn);
+	}
+
+	/**
+	 * Looks for a mate by the side to move, solving each of its moves in a tree
+	 * of its own on a pool of threads, each thread with an equal share of this
+	 * solver's nodes
+	 * @param grid
+	 * @param mateIn - moves of the side to move
+	 * @param threads
+	 * @return the shortest mating line of the trees that finished, or a null
+	 * best move if there is no mate within mateIn moves
+	 * @throws InterruptedException
+	 */
+	public SearchResult solveParallel(Chessboard grid, int mateIn, int threads) throws InterruptedException {
+		AtomicBoolean proven = new AtomicBoolean(stopped); // Set once any tree is proven so the rest give up
+		cancel = proven; // Lets stop() reach the trees
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ThreadLocal<MateSolver> solvers = ThreadLocal.withInitial(() -> new MateSolver(maxNodes / threads)); // One pool per thread
+		List<Future<Tree>> trees = new ArrayList<Future<Tree>>();
+		for (Move first : grid.getLegalMoves()) {
+			trees.add(pool.submit(() -> {
+				MateSolver solver = solvers.get();
+				solver.cancel = proven;
+				Chessboard copy = new Chessboard(grid);
+				copy.makeMove(first);
+				Tree tree = new Tree();
+				if (solver.prove(copy, false, 2 * mateIn - 1)) {
+					proven.set(true);
+					tree.found = solver.line();
+					tree.found.add(0, first);
+				}
+				tree.nodes = solver.nodes;
+				tree.complete = solver.complete;
+				return tree;
+			}));
+		}
+		pool.shutdown();
+
+		List<Move> found = null;
+		nodes = 0;
+		complete = true;
+		for (Future<Tree> future : trees) {
+			Tree tree;
+			try {
+				tree = future.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			if (tree.found != null && (found == null || tree.found.size() < found.size())) { found = tree.found; }
+			nodes += tree.nodes;
+			complete &= tree.complete;
+		}
+		complete |= found != null;
+		cancel = null;
+		return result(found, mateIn);
+	}
+
+	/**
+	 * @param line - null if no mate was found
+	 * @param mateIn
+	 * @return the line as a search result, scored like the search scores mates
+	 */
+	private SearchResult result(List<Move> line, int mateIn) {
+		if (line == null) {
+			return new SearchResult(null, 0, mateIn, nodes, new ArrayList<Move>());
+		}
+		return new SearchResult(line.get(0), Search.MATE - line.size(), mateIn, nodes, line);
+	}
+
+	/**
+	 * Builds the tree until its root is proven or disproven, the pool runs out
+	 * or the solve is stopped
+	 * @param grid - the root position
+	 * @param attacker - true if the side to move at the root is the one mating
+	 * @param plies - the defender must be mated within this many plies
+	 * @return true if the root is proven
+	 */
+	private boolean prove(Chessboard grid, boolean attacker, int plies) {
+		if (proof == null) {
+			proof = new int[maxNodes];
+			disproof = new int[maxNodes];
+			parent = new int[maxNodes];
+			child = new int[maxNodes];
+			sibling = new int[maxNodes];
+			move = new int[maxNodes];
+			ply = new int[maxNodes];
+		}
+		rootOr = attacker;
+		maxPly = plies;
+		size = 0;
+		free = NONE;
+		nodes = 0;
+		complete = false;
+
+		int root = allocate(NONE, 0, 0);
+		evaluate(root, grid);
+		while (proof[root] != 0 && disproof[root] != 0) {
+			if (stopped || (cancel != null && cancel.get())) { return false; }
+
+			/* Walks down to the most proving leaf, replaying its moves */
+			Chessboard board = new Chessboard(grid);
+			int node = root;
+			while (child[node] != NONE) {
+				node = mostProving(node);
+				board.makeMove(Move.unpack(move[node]));
+			}
+			if (!expand(node, board)) { return false; } // Out of nodes
+			update(node);
+		}
+		complete = true;
+		return proof[root] == 0;
+	}
+
+	/**
+	 * @param node - an expanded node
+	 * @return the child with the smallest proof number at the attacker's nodes,
+	 * the smallest disproof number at the defender's
+	 */
+	private int mostProving(int node) {
+		boolean or = isOr(node);
+		int best = NONE;
+		for (int c = child[node]; c != NONE; c = sibling[c]) {
+			if (best == NONE || (or ? proof[c] < proof[best] : disproof[c] < disproof[best])) { best = c; }
+		}
+		return best;
+	}
+
+	/**
+	 * Creates a child for every legal move of the leaf
+	 * @param node
+	 * @param board - the leaf's position
+	 * @return false if the pool ran out
+	 */
+	private boolean expand(int node, Chessboard board) {
+		for (Move m : board.getLegalMoves()) {
+			int c = allocate(node, ply[node] + 1, m.pack());
+			if (c == NONE) { return false; }
+			Chessboard next = new Chessboard(board);
+			next.makeMove(m);
+			evaluate(c, next);
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the proof and disproof numbers of a new node from its position
+	 * @param node
+	 * @param board
+	 */
+	private void evaluate(int node, Chessboard board) {
+		int moves = board.getLegalMoves().size();
+		boolean mated = moves == 0 && board.isCheck(board.isWhiteTurn());
+		if (isOr(node)) { // Attacker to move
+			if (moves == 0 || ply[node] >= maxPly || (ply[node] > 0 && board.isRepetition())) {
+				set(node, INFINITY, 0); // Mated, stalemated, out of time or going around in circles
+			} else {
+				set(node, 1, moves);
+			}
+		} else { // Defender to move
+			if (mated) {
+				set(node, 0, INFINITY);
+			} else if (moves == 0 || ply[node] + 1 >= maxPly || (ply[node] > 0 && board.isRepetition())) {
+				set(node, INFINITY, 0); // Stalemate, or no time left to mate
+			} else {
+				set(node, moves, 1);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the numbers of node and its ancestors from their children,
+	 * handing back the subtree of every node that becomes disproven
+	 * @param node - the node just expanded
+	 */
+	private void update(int node) {
+		while (node != NONE) {
+			int p = 0, d = 0;
+			if (isOr(node)) { // Proven by any child, disproven by all
+				p = INFINITY;
+				for (int c = child[node]; c != NONE; c = sibling[c]) {
+					p = Math.min(p, proof[c]);
+					d = Math.min(INFINITY, d + disproof[c]);
+				}
+			} else { // Proven by all children, disproven by any
+				d = INFINITY;
+				for (int c = child[node]; c != NONE; c = sibling[c]) {
+					p = Math.min(INFINITY, p + proof[c]);
+					d = Math.min(d, disproof[c]);
+				}
+			}
+			if (d == 0) { release(node); } // Never looked at again
+			if (p == proof[node] && d == disproof[node] && child[node] != NONE) { return; } // Nothing above changes
+			set(node, p, d);
+			node = parent[node];
+		}
+	}
+
+	/**
+	 * @return the line from the root of the proven tree - the attacker's
+	 * quickest mate against the defender's longest resistance
+	 */
+	private List<Move> line() {
+		List<Move> line = new ArrayList<Move>();
+		int node = 0; // The root
+		while (child[node] != NONE) {
+			int best = NONE, bestLength = 0;
+			for (int c = child[node]; c != NONE; c = sibling[c]) {
+				if (proof[c] != 0) { continue; }
+				int length = length(c);
+				if (best == NONE || (isOr(node) ? length < bestLength : length > bestLength)) {
+					best = c;
+					bestLength = length;
+				}
+			}
+			line.add(Move.unpack(move[best]));
+			node = best;
+		}
+		return line;
+	}
+
+	/**
+	 * @param node - a proven node
+	 * @return plies to mate from the node in its proven tree
+	 */
+	private int length(int node) {
+		int best = (child[node] == NONE) ? 0 : isOr(node) ? INFINITY : 0;
+		for (int c = child[node]; c != NONE; c = sibling[c]) {
+			if (proof[c] != 0) { continue; }
+			best = isOr(node) ? Math.min(best, length(c) + 1) : Math.max(best, length(c) + 1);
+		}
+		return best;
+	}
+
+	/**
+	 * @param node
+	 * @return true if the attacker moves at the node
+	 */
+	private boolean isOr(int node) {
+		return (ply[node] % 2 == 0) == rootOr;
+	}
+
+	private void set(int node, int p, int d) {
+		proof[node] = p;
+		disproof[node] = d;
+	}
+
+	/**
+	 * Takes a node from the pool and links it in as the first child of its parent
+	 * @param p - parent, NONE for the root
+	 * @param depth - distance from the root
+	 * @param m - packed move
+	 * @return the node, NONE if the pool is empty
+	 */
+	private int allocate(int p, int depth, int m) {
+		int node;
+		if (free != NONE) {
+			node = free;
+			free = sibling[free];
+		} else if (size < maxNodes) {
+			node = size++;
+		} else {
+			return NONE;
+		}
+		nodes++;
+		parent[node] = p;
+		child[node] = NONE;
+		sibling[node] = (p != NONE) ? child[p] : NONE;
+		if (p != NONE) { child[p] = node; }
+		move[node] = m;
+		ply[node] = depth;
+		return node;
+	}
+
+	/**
+	 * Hands every node below node back to the pool
+	 * @param node
+	 */
+	private void release(int node) {
+		int c = child[node];
+		child[node] = NONE;
+		while (c != NONE) {
+			int next = sibling[c];
+			release(c);
+			sibling[c] = free;
+			free = c;
+			c = next;
+		}
+	}
+
+	/**
+	 * @param args - a FEN in quotes, the moves to mate in, and optionally the
+	 * node limit and the number of threads (one by default)
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: java model.MateSolver \"fen\" moves [nodes] [threads]");
+			return;
+		}
+		Chessboard grid = Chessboard.fromFen(args[0]);
+		int mateIn = Integer.parseInt(args[1]);
+		MateSolver solver = new MateSolver((args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_NODES);
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+
+		long start = System.currentTimeMillis();
+		SearchResult result = (threads > 1) ? solver.solveParallel(grid, mateIn, threads) : solver.solve(grid, mateIn);
+		long millis = System.currentTimeMillis() - start;
+		if (result.getBestMove() != null) {
+			StringBuilder line = new StringBuilder("Mate in " + (result.getPv().size() + 1) / 2 + ":");
+			for (Move move : result.getPv()) { line.append(' ').append(ChessUtils.moveText(move)); }
+			System.out.println(line);
+		} else if (solver.isComplete()) {
+			System.out.println("No mate within " + mateIn);
+		} else {
+			System.out.println("No mate found within " + mateIn + " before the node limit");
+		}
+		System.out.println(solver.getNodes() + " nodes in " + millis + "ms");
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ * @author Danny Cummings
+ * This class is a Monte Carlo tree search (MCTS), an alternative to the
+ * alpha-beta search for the computer player
+ * Each playout walks down the tree picking the child with the best upper
+ * confidence bound (UCT) - its win rate plus a bonus for being visited
+ * little - scores the leaf it reaches, adds the leaf's moves to the tree,
+ * and adds the result to every node on the way back up. A leaf is scored
+ * with Chessboard.score() turned into a chance of winning, or with a short
+ * alpha-beta search if a playout depth is set
+ * Playouts run in parallel on a pool of threads. Walking and updating the
+ * tree is done under a lock but scoring the leaf is not, and every node on
+ * the path of a running playout counts a virtual loss so the other threads
+ * spread out instead of all following the same line. The level's time cap
+ * is split between the threads, so a search costs no more CPU than the
+ * level allows however many threads it runs on
+ * The tree is kept in primitive arrays, and it is kept between moves - when
+ * the next search starts two plies further down a line already in the tree,
+ * that subtree is copied into a second set of arrays, which then becomes the
+ * tree, so moving down the game allocates nothing
+ */
+package model;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MonteCarlo {
+
+	public static final int DEFAULT_NODES = 1 << 18; // Nodes in the tree
+
+	private static final double EXPLORATION = 1.4, // Weight of the bonus for rarely visited children
+								SCALE = 400.0;     // Centipawns at which the side ahead wins about 91% of the time
+
+	private static final int NONE = -1, VIRTUAL_LOSS = 1, MAX_PLY = 128, // Deepest line kept in the tree
+							UNEXPANDED = 0, EXPANDED = 1, TERMINAL = 2; // States of a node
+
+	/* The tree, node i is index i of every array and node 0 is the root */
+	private final int maxNodes;
+	private int[] parent, child, sibling; // First child and next sibling, NONE if there are none
+	private int[] move;     // Move that reaches the node - from square, to square and promotion
+	private int[] visits;   // Finished playouts through the node
+	private int[] pending;  // Running playouts through the node, each counted as a loss
+	private double[] wins;  // Sum of results for the side that made the node's move
+	private byte[] state;
+	private float[] fixed;  // Result of a terminal node for the side that made its move
+	private int size = 0;
+
+	/* The second set of arrays, swapped with the tree's when it is compacted, null before the first time */
+	private int[] spareParent, spareChild, spareSibling, spareMove, spareVisits, sparePending;
+	private double[] spareWins;
+	private byte[] spareState;
+	private float[] spareFixed;
+
+	private Chessboard root = null; // Position of the root, null before the first search
+	private int playoutDepth = 0;   // 0 scores leaves with the evaluation alone
+
+	private final int threads;
+	private final ExecutorService pool;
+
+	/* Budget of the current search */
+	private final AtomicLong nodes = new AtomicLong();
+	private volatile long nodeLimit, deadline;
+
+	/**
+	 * @param maxNodes - most nodes the tree may hold
+	 * @param threads - playouts run at once
+	 */
+	public MonteCarlo(int maxNodes, int threads) {
+		this.maxNodes = maxNodes;
+		this.threads = threads;
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Monte Carlo");
+			thread.setDaemon(true);
+			return thread;
+		});
+		allocateArrays();
+	}
+
+	public MonteCarlo() {
+		this(DEFAULT_NODES, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param depth - plies of alpha-beta search used to score each leaf, 0 to use
+	 * the evaluation alone
+	 */
+	public void setPlayoutDepth(int depth) {
+		playoutDepth = Math.max(depth, 0);
+	}
+
+	/**
+	 * @return playouts through the root of the current tree
+	 */
+	public synchronized int getPlayouts() {
+		return (size == 0) ? 0 : visits[0];
+	}
+
+	/**
+	 * Runs playouts from the position until the level's positions or time run
+	 * out, reusing the tree of the last search if the position is in it
+	 * @param grid
+	 * @param level - its node budget counts every position scored, and its time cap
+	 * is divided by the number of threads so their CPU time together stays within it
+	 * @return the most visited move, its score, the number of positions scored,
+	 * and the most visited line, with a null best move if there are no legal moves
+	 */
+	public SearchResult search(Chessboard grid, Level level) {
+		if (grid.getLegalMoves().isEmpty()) {
+			return new SearchResult(null, 0, 0, 0, new ArrayList<Move>());
+		}
+		synchronized (this) {
+			reroot(grid);
+		}
+		nodes.set(0);
+		nodeLimit = level.getNodes();
+		deadline = System.nanoTime() + level.getMillis() * 1000000 / threads;
+
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int i = 0; i < threads; i++) {
+			workers.add(pool.submit(() -> {
+				while (!finished()) { playout(); }
+			}));
+		}
+		boolean interrupted = false;
+		for (Future<?> worker : workers) {
+			while (true) {
+				try {
+					worker.get();
+					break;
+				} catch (InterruptedException e) { // Plays what it has so far, once the running playouts are done with the tree
+					deadline = System.nanoTime();
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		if (interrupted) { Thread.currentThread().interrupt(); }
+		return result();
+	}
+
+	/**
+	 * Stops the threads, the engine cannot search afterwards
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * @return true once the budget is spent, never before the root has children
+	 * so there is always a move to play, unless the root can have none
+	 */
+	private boolean finished() {
+		synchronized (this) {
+			if (child[0] == NONE && state[0] != TERMINAL) { return false; }
+		}
+		return nodes.get() >= nodeLimit || System.nanoTime() >= deadline;
+	}
+
+	/**
+	 * Walks down the tree to a leaf, scores it, expands it and backs the result up
+	 */
+	private void playout() {
+		int[] path = new int[MAX_PLY];
+		int length = 0, node = 0;
+		boolean terminal;
+		double value = 0;
+
+		synchronized (this) { // Chooses the path and marks it as in use
+			path[length++] = node;
+			while (state[node] == EXPANDED && child[node] != NONE && length < MAX_PLY) {
+				node = select(node);
+				path[length++] = node;
+			}
+			for (int i = 0; i < length; i++) { pending[path[i]] += VIRTUAL_LOSS; }
+			terminal = state[node] == TERMINAL;
+			if (terminal) { value = fixed[node]; }
+		}
+
+		List<Move> moves = null;
+		if (!terminal) { // Scores the leaf outside the lock
+			Chessboard board = new Chessboard(root);
+			for (int i = 1; i < length; i++) { board.makeMove(Move.unpack(move[path[i]])); }
+			moves = board.getLegalMoves();
+			if (moves.isEmpty()) { // The side that moved in mated or stalemated
+				terminal = true;
+				value = board.isCheck(board.isWhiteTurn()) ? 1.0 : 0.5;
+			} else if (length > 1 && (board.isRepetition() || board.isFiftyMoveRule())) {
+				terminal = true;
+				value = 0.5;
+			} else {
+				value = 1.0 - evaluate(board); // For the side that moved in
+			}
+		}
+
+		synchronized (this) {
+			if (terminal) {
+				state[node] = TERMINAL;
+				fixed[node] = (float) value;
+			} else if (state[node] == UNEXPANDED && size + moves.size() <= maxNodes) { // Another thread may have got here first
+				for (Move m : moves) { allocate(node, m.pack()); }
+				state[node] = EXPANDED;
+			}
+			for (int i = length - 1; i >= 0; i--) { // Results alternate between the sides going up
+				pending[path[i]] -= VIRTUAL_LOSS;
+				visits[path[i]]++;
+				wins[path[i]] += value;
+				value = 1.0 - value;
+			}
+		}
+	}
+
+	/**
+	 * @param node - an expanded node
+	 * @return the child with the best upper confidence bound, counting running
+	 * playouts as losses and trying unvisited children first
+	 */
+	private int select(int node) {
+		double logParent = Math.log(Math.max(visits[node] + pending[node], 1));
+		int best = NONE;
+		double bestBound = Double.NEGATIVE_INFINITY;
+		for (int c = child[node]; c != NONE; c = sibling[c]) {
+			int n = visits[c] + pending[c];
+			if (n == 0) { return c; }
+			double bound = wins[c] / n + EXPLORATION * Math.sqrt(logParent / n);
+			if (bound > bestBound) {
+				bestBound = bound;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param board
+	 * @return chance of the side to move winning
+	 */
+	private double evaluate(Chessboard board) {
+		int score;
+		if (playoutDepth == 0) {
+			nodes.incrementAndGet();
+			score = board.isWhiteTurn() ? board.score() : -board.score();
+		} else {
+			Search search = new Search();
+			score = search.score(board, playoutDepth, -Search.INFINITY, Search.INFINITY);
+			nodes.addAndGet(search.getNodes());
+		}
+		if (Math.abs(score) >= Search.MATE_BOUND) { return (score > 0) ? 1.0 : 0.0; }
+		return 1.0 / (1.0 + Math.pow(10.0, -score / SCALE));
+	}
+
+	/**
+	 * @return the most visited move and line from the root
+	 */
+	private synchronized SearchResult result() {
+		List<Move> pv = new ArrayList<Move>();
+		int node = 0, best = NONE;
+		while (child[node] != NONE) {
+			int next = NONE;
+			for (int c = child[node]; c != NONE; c = sibling[c]) {
+				if (next == NONE || visits[c] > visits[next]) { next = c; }
+			}
+			if (visits[next] == 0) { break; }
+			if (best == NONE) { best = next; }
+			pv.add(Move.unpack(move[next]));
+			node = next;
+		}
+		if (best == NONE) { best = child[0]; } // Not visited yet, any move will do
+		if (best == NONE) { // Never expanded
+			Move any = root.getLegalMoves().get(0);
+			pv.add(any);
+			return new SearchResult(any, 0, 0, nodes.get(), pv);
+		}
+		if (pv.isEmpty()) { pv.add(Move.unpack(move[best])); }
+
+		if (state[best] == TERMINAL && fixed[best] == 1.0f) { // Mates at once
+			return new SearchResult(Move.unpack(move[best]), Search.MATE - 1, 1, nodes.get(), pv);
+		}
+		double rate = (visits[best] == 0) ? 0.5 : Math.min(Math.max(wins[best] / visits[best], 0.001), 0.999);
+		int score = (int) Math.round(-SCALE * Math.log10(1.0 / rate - 1.0)); // The evaluation's sigmoid turned back
+		return new SearchResult(Move.unpack(move[best]), score, pv.size(), nodes.get(), pv);
+	}
+
+	/**
+	 * Makes the position the root, keeping its subtree if it is the root of the
+	 * last search or one or two plies below it, and starting a new tree otherwise
+	 * @param grid
+	 */
+	private void reroot(Chessboard grid) {
+		int found = NONE;
+		if (root != null && root.getHash() == grid.getHash()) {
+			found = 0;
+		} else if (root != null) {
+			for (int c = child[0]; c != NONE && found == NONE; c = sibling[c]) {
+				Chessboard after = new Chessboard(root);
+				after.makeMove(Move.unpack(move[c]));
+				if (after.getHash() == grid.getHash()) { found = c; }
+				for (int g = child[c]; g != NONE && found == NONE; g = sibling[g]) {
+					Chessboard reply = new Chessboard(after);
+					reply.makeMove(Move.unpack(move[g]));
+					if (reply.getHash() == grid.getHash()) { found = g; }
+				}
+			}
+		}
+		root = new Chessboard(grid);
+
+		if (found == NONE) { // Starts over
+			size = 0;
+			allocate(NONE, 0);
+		} else if (found != 0) {
+			compact(found);
+		}
+		if (state[0] == TERMINAL) { // A repetition below the root is a draw, but play goes on from the root itself
+			state[0] = UNEXPANDED;
+			fixed[0] = 0;
+		}
+	}
+
+	/**
+	 * Copies the subtree of node to the front of the spare arrays, breadth
+	 * first, with node as the new root, and makes them the tree's
+	 * @param node
+	 */
+	private void compact(int node) {
+		int[] oldChild = child, oldSibling = sibling, oldMove = move, oldVisits = visits;
+		double[] oldWins = wins;
+		byte[] oldState = state;
+		float[] oldFixed = fixed;
+		swapArrays();
+
+		/* No playouts are running, so until a node is copied its pending count holds its old index */
+		pending[0] = node;
+		size = 1;
+		for (int i = 0; i < size; i++) {
+			int old = pending[i];
+			if (i == 0) { parent[i] = NONE; }
+			move[i] = oldMove[old];
+			visits[i] = oldVisits[old];
+			pending[i] = 0;
+			wins[i] = oldWins[old];
+			state[i] = oldState[old];
+			fixed[i] = oldFixed[old];
+			child[i] = NONE;
+			sibling[i] = NONE;
+
+			int last = NONE; // Children keep their order
+			for (int c = oldChild[old]; c != NONE; c = oldSibling[c]) {
+				pending[size] = c;
+				parent[size] = i;
+				if (last == NONE) { child[i] = size; } else { sibling[last] = size; }
+				last = size++;
+			}
+		}
+	}
+
+	/**
+	 * Makes empty arrays for the tree
+	 */
+	private void allocateArrays() {
+		parent = new int[maxNodes];
+		child = new int[maxNodes];
+		sibling = new int[maxNodes];
+		move = new int[maxNodes];
+		visits = new int[maxNodes];
+		pending = new int[maxNodes];
+		wins = new double[maxNodes];
+		state = new byte[maxNodes];
+		fixed = new float[maxNodes];
+	}
+
+	/**
+	 * Swaps the tree's arrays with the spare set, making the spare set the
+	 * first time, so the old tree can still be read while the new one is built
+	 */
+	private void swapArrays() {
+		if (spareParent == null) {
+			spareParent = new int[maxNodes];
+			spareChild = new int[maxNodes];
+			spareSibling = new int[maxNodes];
+			spareMove = new int[maxNodes];
+			spareVisits = new int[maxNodes];
+			sparePending = new int[maxNodes];
+			spareWins = new double[maxNodes];
+			spareState = new byte[maxNodes];
+			spareFixed = new float[maxNodes];
+		}
+		int[] ints = parent; parent = spareParent; spareParent = ints;
+		ints = child; child = spareChild; spareChild = ints;
+		ints = sibling; sibling = spareSibling; spareSibling = ints;
+		ints = move; move = spareMove; spareMove = ints;
+		ints = visits; visits = spareVisits; spareVisits = ints;
+		ints = pending; pending = sparePending; sparePending = ints;
+		double[] doubles = wins; wins = spareWins; spareWins = doubles;
+		byte[] bytes = state; state = spareState; spareState = bytes;
+		float[] floats = fixed; fixed = spareFixed; spareFixed = floats;
+	}
+
+	/**
+	 * Takes the next node and links it in as the first child of its parent
+	 * @param p - parent, NONE for the root
+	 * @param m - packed move
+	 * @return the node
+	 */
+	private int allocate(int p, int m) {
+		int node = size++;
+		parent[node] = p;
+		child[node] = NONE;
+		sibling[node] = (p != NONE) ? child[p] : NONE;
+		if (p != NONE) { child[p] = node; }
+		move[node] = m;
+		visits[node] = 0;
+		pending[node] = 0;
+		wins[node] = 0;
+		state[node] = UNEXPANDED;
+		fixed[node] = 0;
+		return node;
+	}
+}
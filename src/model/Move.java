@@ -0,0 +1,73 @@
+/**
+ * @author Danny Cummings
+ * This class describes a single move on the board - the square a piece
+ * leaves, the square it lands on, and the piece a pawn is promoted to
+ */
+package model;
+
+public class Move {
+	private Coordinate from, to;
+	private int promotion; // Absolute value of the promoted piece, 0 if the move is not a promotion
+	
+	public Move(Coordinate from, Coordinate to) {
+		this(from, to, 0);
+	}
+	
+	public Move(Coordinate from, Coordinate to, int promotion) {
+		this.from = from;
+		this.to = to;
+		this.promotion = promotion;
+	}
+	
+	public Coordinate getFrom() {
+		return from;
+	}
+	
+	public Coordinate getTo() {
+		return to;
+	}
+	
+	public int getPromotion() {
+		return promotion;
+	}
+	
+	/**
+	 * @return the move in 16 bits, the form it is stored and sent in - bits 0 - 5
+	 * from square, 6 - 11 to square, 12 - 15 promotion, squares numbered y * 8 + x
+	 */
+	public int pack() {
+		return (from.getY() * 8 + from.getX()) | ((to.getY() * 8 + to.getX()) << 6) | (promotion << 12);
+	}
+	
+	/**
+	 * @param packed - written by pack, only the low 16 bits are read
+	 * @return the move
+	 */
+	public static Move unpack(int packed) {
+		int from = packed & 63, to = (packed >>> 6) & 63;
+		return new Move(new Coordinate(from & 7, from >>> 3), new Coordinate(to & 7, to >>> 3), (packed >>> 12) & 15);
+	}
+	
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		else if (!(obj instanceof Move)) {
+			return false;
+		}
+		else {
+			Move move = (Move) obj;
+			return from.equals(move.getFrom()) && to.equals(move.getTo()) && promotion == move.getPromotion();
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		return ((from.getX() * 8 + from.getY()) * 64 + to.getX() * 8 + to.getY()) * 16 + promotion;
+	}
+	
+	@Override
+	public String toString() {
+		return from.toString() + to.toString() + (promotion != 0 ? "=" + promotion : "");
+	}
+}
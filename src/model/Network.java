@@ -0,0 +1,226 @@
+/**
+ * @author Danny Cummings
+ * This class is an optional neural network evaluator (NNUE) used in place
+ * of the material and mobility score when a network file is present
+ * The network has one input for every piece on every square, seen from
+ * each side's point of view, feeding a hidden layer whose values are kept
+ * in an Accumulator that is updated as pieces move rather than recomputed
+ * The hidden layers of both sides are clipped and combined into one output
+ * All weights are 16 bit integers, and the work on them is done with the
+ * Vector API (SIMD) when the jdk.incubator.vector module is available
+ * 
+ * File layout, little-endian: int magic, int version, int hidden size,
+ * short feature weights [768][hidden], short feature biases [hidden],
+ * short output weights [2 * hidden], int output bias
+ */
+package model;
+
+/* IO */
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class Network {
+	
+	public static final String FILENAME = "network.nnue"; // Loaded at startup if it exists
+	
+	public static final int MAGIC = 0x4E4E5545, VERSION = 1, INPUTS = 768; // 12 pieces on 64 squares
+	
+	/* Quantization - hidden values are clipped to [0, CLIP] and output weights are scaled by OUTPUT_SCALE */
+	public static final int CLIP = 255, OUTPUT_SCALE = 64, CENTIPAWN_SCALE = 400;
+	
+	private static Network network = null; // Null when playing with the material and mobility score
+	private static final Kernel KERNEL = createKernel();
+	
+	private final int hidden; // Size of each side's hidden layer
+	private final short[] featureWeights, featureBiases, outputWeights;
+	private final int outputBias;
+	
+	static {
+		if (new File(FILENAME).exists()) {
+			try {
+				load(FILENAME);
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Operations on rows of weights that the evaluator spends its time in
+	 */
+	interface Kernel {
+		/**
+		 * Adds weights[offset .. offset + acc.length) to acc
+		 */
+		void add(short[] acc, short[] weights, int offset);
+		
+		/**
+		 * Subtracts weights[offset .. offset + acc.length) from acc
+		 */
+		void subtract(short[] acc, short[] weights, int offset);
+		
+		/**
+		 * Clips each value of us and them to [0, CLIP] and takes the dot product
+		 * with weights, us first then them
+		 */
+		int output(short[] us, short[] them, short[] weights);
+	}
+	
+	/**
+	 * Plain loops used when the Vector API is not available
+	 */
+	static class ScalarKernel implements Kernel {
+		public void add(short[] acc, short[] weights, int offset) {
+			for (int i = 0; i < acc.length; i++) {
+				acc[i] += weights[offset + i];
+			}
+		}
+		
+		public void subtract(short[] acc, short[] weights, int offset) {
+			for (int i = 0; i < acc.length; i++) {
+				acc[i] -= weights[offset + i];
+			}
+		}
+		
+		public int output(short[] us, short[] them, short[] weights) {
+			int sum = 0;
+			for (int i = 0; i < us.length; i++) {
+				sum += Math.min(Math.max(us[i], 0), CLIP) * weights[i];
+				sum += Math.min(Math.max(them[i], 0), CLIP) * weights[us.length + i];
+			}
+			return sum;
+		}
+	}
+	
+	/**
+	 * Uses the SIMD kernel unless the Vector API module is missing or the 
+	 * network.scalar system property is set
+	 * @return the kernel
+	 */
+	private static Kernel createKernel() {
+		if (!Boolean.getBoolean("network.scalar")) {
+			try {
+				return (Kernel) Class.forName("model.NetworkVector").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {} // Run with --add-modules jdk.incubator.vector for SIMD
+		}
+		return new ScalarKernel();
+	}
+	
+	private Network(int hidden, short[] featureWeights, short[] featureBiases, short[] outputWeights, int outputBias) {
+		this.hidden = hidden;
+		this.featureWeights = featureWeights;
+		this.featureBiases = featureBiases;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+	}
+	
+	/**
+	 * Reads a network file and uses it for every board created afterwards
+	 * @param filename
+	 * @throws IOException if the file is missing or not a network file
+	 */
+	public static void load(String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename))).order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException(filename + " is not a network file");
+		}
+		int hidden = buffer.getInt();
+		if (hidden <= 0 || buffer.remaining() != (INPUTS * hidden + hidden + 2 * hidden) * 2 + 4) {
+			throw new IOException(filename + " has the wrong size");
+		}
+		
+		short[] featureWeights = new short[INPUTS * hidden], featureBiases = new short[hidden], outputWeights = new short[2 * hidden];
+		buffer.asShortBuffer().get(featureWeights);
+		buffer.position(buffer.position() + featureWeights.length * 2);
+		buffer.asShortBuffer().get(featureBiases);
+		buffer.position(buffer.position() + featureBiases.length * 2);
+		buffer.asShortBuffer().get(outputWeights);
+		buffer.position(buffer.position() + outputWeights.length * 2);
+		network = new Network(hidden, featureWeights, featureBiases, outputWeights, buffer.getInt());
+	}
+	
+	/**
+	 * Goes back to the material and mobility score for boards created afterwards
+	 */
+	public static void unload() {
+		network = null;
+	}
+	
+	/**
+	 * @return the loaded network, null if none is loaded
+	 */
+	public static Network get() {
+		return network;
+	}
+	
+	/**
+	 * @return true if the SIMD kernel is in use
+	 */
+	public static boolean isVectorized() {
+		return !(KERNEL instanceof ScalarKernel);
+	}
+	
+	/**
+	 * @return size of each side's hidden layer
+	 */
+	public int getHidden() {
+		return hidden;
+	}
+	
+	/**
+	 * @param value - signed value of the piece
+	 * @param x
+	 * @param y
+	 * @param white - true for the input seen by white, false for black
+	 * @return index of the input for the piece on (x, y) - black sees the board
+	 * flipped with the colors swapped so both sides share the same weights
+	 */
+	static int input(int value, int x, int y, boolean white) {
+		int piece = Zobrist.index(value), square = y * 8 + x;
+		if (!white) {
+			piece = (piece < 6) ? piece + 6 : piece - 6;
+			square ^= 56; // Mirrors the rows
+		}
+		return piece * 64 + square;
+	}
+	
+	/**
+	 * @return a hidden layer holding only the biases
+	 */
+	short[] biases() {
+		return featureBiases.clone();
+	}
+	
+	/**
+	 * Adds the weights of an input to a hidden layer
+	 * @param acc
+	 * @param input
+	 */
+	void add(short[] acc, int input) {
+		KERNEL.add(acc, featureWeights, input * hidden);
+	}
+	
+	/**
+	 * Removes the weights of an input from a hidden layer
+	 * @param acc
+	 * @param input
+	 */
+	void subtract(short[] acc, int input) {
+		KERNEL.subtract(acc, featureWeights, input * hidden);
+	}
+	
+	/**
+	 * @param accumulator
+	 * @param white - side to move
+	 * @return score in centipawns from the point of view of the side to move
+	 */
+	public int evaluate(Accumulator accumulator, boolean white) {
+		short[] us = white ? accumulator.getWhite() : accumulator.getBlack(), them = white ? accumulator.getBlack() : accumulator.getWhite();
+		long sum = (long) KERNEL.output(us, them, outputWeights) + outputBias;
+		return (int) (sum * CENTIPAWN_SCALE / (CLIP * OUTPUT_SCALE));
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * @author Danny Cummings
+ * This class does the network's work on rows of weights with the Vector 
+ * API, handling as many 16 bit values per instruction as the CPU allows
+ * It is only loaded when the jdk.incubator.vector module is available, 
+ * otherwise Network falls back to plain loops
+ */
+package model;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class NetworkVector implements Network.Kernel {
+	
+	private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED; // Same width, half as many lanes
+	
+	public void add(short[] acc, short[] weights, int offset) {
+		int i = 0;
+		for (int bound = SHORTS.loopBound(acc.length); i < bound; i += SHORTS.length()) {
+			ShortVector.fromArray(SHORTS, acc, i).add(ShortVector.fromArray(SHORTS, weights, offset + i)).intoArray(acc, i);
+		}
+		for (; i < acc.length; i++) { // Leftover values
+			acc[i] += weights[offset + i];
+		}
+	}
+	
+	public void subtract(short[] acc, short[] weights, int offset) {
+		int i = 0;
+		for (int bound = SHORTS.loopBound(acc.length); i < bound; i += SHORTS.length()) {
+			ShortVector.fromArray(SHORTS, acc, i).sub(ShortVector.fromArray(SHORTS, weights, offset + i)).intoArray(acc, i);
+		}
+		for (; i < acc.length; i++) {
+			acc[i] -= weights[offset + i];
+		}
+	}
+	
+	public int output(short[] us, short[] them, short[] weights) {
+		return dot(us, weights, 0) + dot(them, weights, us.length);
+	}
+	
+	/**
+	 * Clips each value to [0, CLIP] and takes the dot product with the weights,
+	 * widening to 32 bits before multiplying so nothing overflows
+	 * @param values
+	 * @param weights
+	 * @param offset - where the matching weights start
+	 * @return the dot product
+	 */
+	private int dot(short[] values, short[] weights, int offset) {
+		IntVector sum = IntVector.zero(INTS);
+		int i = 0;
+		for (int bound = SHORTS.loopBound(values.length); i < bound; i += SHORTS.length()) {
+			ShortVector clipped = ShortVector.fromArray(SHORTS, values, i).max((short) 0).min((short) Network.CLIP);
+			ShortVector weight = ShortVector.fromArray(SHORTS, weights, offset + i);
+			for (int part = 0; part < 2; part++) { // Low then high half of the lanes
+				IntVector a = (IntVector) clipped.convertShape(VectorOperators.S2I, INTS, part);
+				IntVector b = (IntVector) weight.convertShape(VectorOperators.S2I, INTS, part);
+				sum = sum.add(a.mul(b));
+			}
+		}
+		int total = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < values.length; i++) {
+			total += Math.min(Math.max(values[i], 0), Network.CLIP) * weights[offset + i];
+		}
+		return total;
+	}
+}
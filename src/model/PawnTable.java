@@ -0,0 +1,93 @@
+/**
+ * @author Danny Cummings
+ * This class caches the pawn structure of positions the search has seen,
+ * keyed by a hash of the pawns alone - pawns rarely move between one 
+ * position and the next so most lookups find the structure already counted
+ * Each entry is the key and a packed set of counts, stored as the key 
+ * XORed with the counts so a half-written entry from another thread 
+ * simply fails to match instead of giving wrong counts
+ */
+package model;
+
+public class PawnTable {
+	
+	public static final int DEFAULT_SIZE = 1 << 14; // Entries
+	
+	public static final int MISS = -1; // Returned by probe when the structure is not stored, counts only use the low 24 bits
+	
+	private long[] keys;  // Pawn hash XOR counts
+	private int[] counts; // Packed pawn structure counts
+	private int mask;
+	
+	/* Statistics, not synchronized so they are approximate when several threads search */
+	private long hits = 0, misses = 0;
+	
+	/**
+	 * @param size - number of entries, rounded down to a power of two
+	 */
+	public PawnTable(int size) {
+		size = Integer.highestOneBit(Math.max(size, 1));
+		keys = new long[size];
+		counts = new int[size];
+		mask = size - 1;
+		
+		/* An empty table already holds the correct entry for a board with no pawns */
+	}
+	
+	/**
+	 * @param pawnHash
+	 * @return the packed counts of the given pawn structure, MISS if they are not stored
+	 */
+	public int probe(long pawnHash) {
+		int index = (int) pawnHash & mask;
+		int packed = counts[index];
+		if ((keys[index] ^ packed) == pawnHash) {
+			hits++;
+			return packed;
+		}
+		misses++;
+		return MISS;
+	}
+	
+	/**
+	 * Stores the counts of a pawn structure, replacing whatever was in its slot
+	 * @param pawnHash
+	 * @param packed
+	 */
+	public void store(long pawnHash, int packed) {
+		int index = (int) pawnHash & mask;
+		counts[index] = packed;
+		keys[index] = pawnHash ^ packed;
+	}
+	
+	/**
+	 * @return number of entries
+	 */
+	public int getSize() {
+		return keys.length;
+	}
+	
+	public long getHits() {
+		return hits;
+	}
+	
+	public long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return fraction of lookups that found their entry, 0 if there were none
+	 */
+	public double getHitRate() {
+		long total = hits + misses;
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+	
+	/**
+	 * Resets the hit and miss counts
+	 */
+	public void clearStatistics() {
+		hits = 0;
+		misses = 0;
+	}
+}
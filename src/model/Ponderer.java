@@ -0,0 +1,122 @@
+/**
+ * @author Danny Cummings
+ * This class lets the computer think on the human's time - after each of
+ * its moves it starts searching, in the background, the position after the
+ * reply its principal variation expects
+ * The pondering search is held to the level's node budget and time cap
+ * from the moment it starts, so it stops on its own if the human takes
+ * longer than the cap. When the human plays the reply expected (a ponder
+ * hit) the search carries on within what is left of that budget, so a
+ * search that has already used it answers at once. When they play anything
+ * else the search is stopped, and the new position is searched with the
+ * same transposition table, which still holds what pondering found
+ * A ponder hit costs no more than the level's ceiling for one move, so
+ * pondering makes replies quicker without making the level stronger. A miss
+ * costs the time pondered as well as its own search (see Level)
+ */
+package model;
+
+/* Data Structures */
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+public class Ponderer {
+
+	private final Level level;
+	private final TranspositionTable table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE); // Kept from move to move
+
+	/* The search running on the human's time, null when not pondering */
+	private Search search = null;
+	private FutureTask<List<SearchResult>> lines = null;
+	private long expected; // Hash of the position pondered
+
+	/**
+	 * @param level - strength the computer plays at
+	 */
+	public Ponderer(Level level) {
+		this.level = level;
+	}
+
+	/**
+	 * Starts pondering on the position after the reply the computer's last
+	 * search expects, stopping any search already pondering
+	 * @param grid - the position after the computer's move
+	 * @param last - the search that chose the move, its principal variation
+	 * starting with that move
+	 */
+	public synchronized void ponder(Chessboard grid, SearchResult last) {
+		stop();
+		if (last.getPv().size() < 2) { return; } // No reply expected
+		Chessboard position = new Chessboard(grid);
+		position.makeMove(last.getPv().get(1));
+		if (position.getLegalMoves().isEmpty()) { return; }
+
+		expected = position.getHash();
+		search = newSearch(); // The level's clock starts now
+		Search pondering = search;
+		lines = new FutureTask<List<SearchResult>>(() -> pondering.analyze(position, level.getDepth(), null));
+		Thread thread = new Thread(lines, "Ponder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Chooses the computer's move, waiting for the pondering search to use the
+	 * rest of its budget on a ponder hit and searching afresh otherwise
+	 * @param grid - the position after the human's move
+	 * @return the move chosen, its score, and the line of play expected after it,
+	 * with a null best move if there are no legal moves
+	 */
+	public synchronized SearchResult move(Chessboard grid) {
+		if (search != null && grid.getHash() == expected) { // Ponder hit
+			Search hit = search;
+			List<SearchResult> result = finish();
+			if (!result.isEmpty()) { return hit.choose(result); }
+		}
+		stop();
+		return grid.dfs(level.getDepth(), grid.isWhiteTurn(), newSearch());
+	}
+
+	/**
+	 * Stops pondering, if the computer is, and waits for the search to end
+	 */
+	public synchronized void stop() {
+		if (search != null) {
+			search.stop();
+			finish();
+		}
+	}
+
+	/**
+	 * @return lines of the pondering search once it ends, empty if it failed
+	 */
+	private List<SearchResult> finish() {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return lines.get();
+				} catch (InterruptedException e) { // The search still has to end before the board is used again
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			search = null;
+			lines = null;
+			if (interrupted) { Thread.currentThread().interrupt(); }
+		}
+	}
+
+	/**
+	 * @return a search at the computer's level sharing the table
+	 */
+	private Search newSearch() {
+		Search next = new Search();
+		next.setLevel(level);
+		next.setTranspositionTable(table);
+		return next;
+	}
+}
@@ -0,0 +1,508 @@
+/**
+ * @author Danny Cummings
+ * This class performs the AI search for the computer player
+ * It is an iterative deepening principal variation search (PVS) - a negamax 
+ * alpha-beta search where every score is from the point of view of the side 
+ * to move, and every move after the first is tried with a zero window that 
+ * only proves it is no better. Each iteration starts with an aspiration 
+ * window around the previous score and searches the previous principal 
+ * variation first. A set of selective search features can be turned on or 
+ * off: null-move pruning, late move reductions, futility and 
+ * reverse-futility pruning, and check extensions
+ * It can also report the best few lines (multi-PV) after every depth and
+ * be stopped from another thread, which is how the GUI's analysis mode
+ * runs it without a depth limit
+ * When given a transposition table, positions already searched deep enough
+ * are cut off straight away and the best move stored for a position is 
+ * searched first
+ * A strength level caps the positions visited and the time taken, both
+ * checked as each position is visited, and may pick a slightly worse line
+ */
+package model;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class Search {
+
+	public static final int INFINITY = 1000000, MATE = 100000, // Scores beyond any material count
+							MATE_BOUND = MATE - 1000; // Scores above this are forced mates
+
+	public static final int MAX_DEPTH = 32; // Deepest iteration, leaving room for extensions
+	
+	private static final int MAX_PLY = 64,  // Deepest the search can go including extensions
+							ASPIRATION_WINDOW = 100, // Centipawns either side of the previous score
+							NULL_MOVE_REDUCTION = 2,  // How much shallower the null-move search is
+							LMR_MIN_DEPTH = 3, LMR_MIN_MOVES = 3,   // Only reduce late moves with enough depth left
+							REVERSE_FUTILITY_DEPTH = 3, REVERSE_FUTILITY_MARGIN = 200,   // Margin is per ply of depth left
+							CLOCK_INTERVAL = 255; // The clock is read once every this many positions plus one
+
+	private static final int[] FUTILITY_MARGINS = { 0, 200, 500 }; // By depth left - about a minor piece and a rook
+
+	/* Selective search features, all enabled by default */
+	private boolean nullMove = true, lateMoveReductions = true, futility = true, checkExtensions = true;
+
+	private long nodes = 0; // Number of positions visited
+	
+	/* Triangular PV table - row ply holds the best line found from that ply onwards */
+	private Move[][] pvTable = new Move[MAX_PLY][MAX_PLY];
+	private int[] pvLength = new int[MAX_PLY];
+	
+	private Move[] previousPv = new Move[0]; // Principal variation of the last iteration
+	private boolean followPv; // True while the search is still walking down the previous PV
+	
+	private int multiPv = 1; // Number of lines searched at the root
+	private ArrayList<Move> excluded = new ArrayList<Move>(); // Root moves already given a line this iteration
+	
+	private volatile boolean stopped = false; // Set from another thread to end the search early
+	
+	private List<SearchResult> resumed = new ArrayList<SearchResult>(); // Lines the next analyze carries on from
+	
+	private TranspositionTable table = null; // Not used unless one is given
+	
+	/* Limits of the strength level, none by default */
+	private long nodeLimit = Long.MAX_VALUE, timeLimit = Long.MAX_VALUE, deadline = Long.MAX_VALUE; // Time in nanoseconds
+	private boolean limited = false; // Limits only apply once the first depth is complete
+	private int margin = 0; // Centipawns below the best line a chosen line may score
+	private Random random = new Random();
+	
+	/**
+	 * Receives the lines of a search each time a depth is completed
+	 */
+	public interface Listener {
+		/**
+		 * Called on the searching thread
+		 * @param lines - best line first
+		 */
+		void update(List<SearchResult> lines);
+	}
+
+	/**
+	 * @param enabled - true to try a null move before searching a node
+	 */
+	public void setNullMove(boolean enabled) {
+		nullMove = enabled;
+	}
+
+	/**
+	 * @param enabled - true to search late quiet moves at reduced depth
+	 */
+	public void setLateMoveReductions(boolean enabled) {
+		lateMoveReductions = enabled;
+	}
+
+	/**
+	 * @param enabled - true to prune hopeless quiet moves near the leaves
+	 */
+	public void setFutility(boolean enabled) {
+		futility = enabled;
+	}
+
+	/**
+	 * @param enabled - true to search one ply deeper when in check
+	 */
+	public void setCheckExtensions(boolean enabled) {
+		checkExtensions = enabled;
+	}
+
+	/**
+	 * @param table - remembers positions already searched, may be shared between
+	 * searches, null to search without one
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Limits the search to the depth, positions and time of the level and lets
+	 * it choose among its best few lines
+	 * @param level
+	 */
+	public void setLevel(Level level) {
+		nodeLimit = level.getNodes();
+		timeLimit = level.getMillis() * 1000000;
+		margin = level.getMargin();
+		setMultiPv(level.getLines());
+	}
+
+	/**
+	 * @param random - picks among the lines a level allows, seeded for repeatable games
+	 */
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * @param lines - number of best lines to search at the root, each with its
+	 * own score and principal variation
+	 */
+	public void setMultiPv(int lines) {
+		multiPv = Math.max(lines, 1);
+	}
+
+	/**
+	 * Lets the next analyze carry on from a depth already completed, such as one
+	 * saved to a checkpoint, instead of starting from depth 1
+	 * @param lines - the lines of that depth, best first, for the position analyzed next
+	 */
+	public void resume(List<SearchResult> lines) {
+		resumed = new ArrayList<SearchResult>(lines);
+	}
+
+	/**
+	 * Ends the search as soon as possible, keeping the last completed depth
+	 * Safe to call from any thread
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * @return true once stop() has been called
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * @return number of positions visited by the search
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the principal variation of the last iteration, cut short where a
+	 * score only proved a bound
+	 */
+	public List<Move> getPv() {
+		return new ArrayList<Move>(Arrays.asList(Arrays.copyOf(pvTable[0], pvLength[0])));
+	}
+
+	/**
+	 * Searches every move of the given color one ply deeper at a time up to depth
+	 * and picks the best
+	 * @param grid
+	 * @param depth
+	 * @param white - color making the move
+	 * @return the result of the deepest search, with a null best move if there are
+	 * no legal moves
+	 */
+	public SearchResult search(Chessboard grid, int depth, boolean white) {
+		if (grid.isWhiteTurn() != white) { // Search from the requested side's point of view
+			grid = new Chessboard(grid);
+			grid.setWhiteTurn(white);
+		}
+		List<SearchResult> lines = analyze(grid, depth, null);
+		return lines.isEmpty() ? new SearchResult(null, 0, 0, nodes, new ArrayList<Move>()) : choose(lines);
+	}
+
+	/**
+	 * @param lines - best first
+	 * @return a random line scoring within the margin of the best, the best if there is no margin
+	 */
+	SearchResult choose(List<SearchResult> lines) {
+		int count = 1;
+		while (count < lines.size() && lines.get(count).getScore() >= lines.get(0).getScore() - margin) { count++; }
+		return (margin > 0) ? lines.get(random.nextInt(count)) : lines.get(0);
+	}
+	
+	/**
+	 * Searches the side to move's best lines one ply deeper at a time up to 
+	 * depth or until stopped, telling the listener after every depth
+	 * @param grid
+	 * @param depth
+	 * @param listener - may be null
+	 * @return the lines of the deepest completed depth, best first, empty if 
+	 * there are no legal moves
+	 */
+	public List<SearchResult> analyze(Chessboard grid, int depth, Listener listener) {
+		nodes = 0;
+		deadline = (timeLimit == Long.MAX_VALUE) ? Long.MAX_VALUE : System.nanoTime() + timeLimit;
+		int rootMoves = grid.getLegalMoves().size();
+		List<SearchResult> lines = resumed;
+		resumed = new ArrayList<SearchResult>();
+		limited = !lines.isEmpty(); // A resumed search already has a move to play
+		int first = lines.isEmpty() ? 1 : lines.get(0).getDepth() + 1;
+		for (int iteration = first; iteration <= Math.min(depth, MAX_DEPTH) && !stopped; iteration++) {
+			List<SearchResult> current = new ArrayList<SearchResult>();
+			excluded.clear();
+			for (int line = 0; line < Math.min(multiPv, rootMoves); line++) { // Each line leaves out the moves of the lines above
+				previousPv = (line < lines.size()) ? lines.get(line).getPv().toArray(new Move[0]) : new Move[0];
+				int score = aspiration(grid, iteration, (line < lines.size()) ? lines.get(line).getScore() : 0);
+				if (stopped || pvLength[0] == 0) { break; }
+				Move[] pv = Arrays.copyOf(pvTable[0], pvLength[0]);
+				excluded.add(pv[0]);
+				current.add(new SearchResult(pv[0], score, iteration, nodes, Arrays.asList(pv)));
+			}
+			if (stopped && !lines.isEmpty()) { break; } // Keeps the last completed depth
+			
+			current.sort((a, b) -> b.getScore() - a.getScore());
+			lines = current;
+			limited = true; // There is a move to play now
+			if (listener != null && !lines.isEmpty()) { listener.update(lines); }
+		}
+		return lines;
+	}
+	
+	/**
+	 * Finds the score of a position within a window, one ply deeper at a time
+	 * up to depth with only the last iteration using the window - used to search
+	 * a single root move on its own
+	 * @param grid
+	 * @param depth
+	 * @param alpha - scores at or below this are only upper bounds
+	 * @param beta - scores at or above this are only lower bounds
+	 * @return score of the position for the side to move, meaningless if stopped
+	 */
+	public int score(Chessboard grid, int depth, int alpha, int beta) {
+		nodes = 0;
+		excluded.clear();
+		previousPv = new Move[0];
+		int score = 0;
+		for (int iteration = Math.min(depth, 1); iteration <= Math.min(depth, MAX_DEPTH) && !stopped; iteration++) {
+			followPv = true;
+			boolean last = iteration == Math.min(depth, MAX_DEPTH);
+			score = alphabeta(grid, iteration, last ? alpha : -INFINITY, last ? beta : INFINITY, 0, false);
+			previousPv = Arrays.copyOf(pvTable[0], pvLength[0]);
+		}
+		return score;
+	}
+	
+	/**
+	 * Searches the root with a narrow window around the last iteration's score,
+	 * widening it each time the score falls outside
+	 * @param grid
+	 * @param depth
+	 * @param guess - score of the previous iteration
+	 * @return score of the root
+	 */
+	private int aspiration(Chessboard grid, int depth, int guess) {
+		int delta = ASPIRATION_WINDOW;
+		int alpha = (depth > 1) ? guess - delta : -INFINITY, beta = (depth > 1) ? guess + delta : INFINITY;
+		while (true) {
+			followPv = true;
+			int score = alphabeta(grid, depth, alpha, beta, 0, false);
+			if (stopped) {
+				return score;
+			} else if (score <= alpha && alpha > -INFINITY) { // Fail low
+				delta *= 2;
+				alpha = (delta > MATE) ? -INFINITY : score - delta;
+			} else if (score >= beta && beta < INFINITY) { // Fail high
+				delta *= 2;
+				beta = (delta > MATE) ? INFINITY : score + delta;
+			} else {
+				return score;
+			}
+		}
+	}
+	
+	/**
+	 * Assists in AI search
+	 * Repeated positions and positions past the fifty move rule are scored as draws
+	 * straight away so the search does not waste time going around in cycles
+	 * @param grid
+	 * @param depth - plies left to search
+	 * @param alpha - score the side to move is already guaranteed
+	 * @param beta - score the opponent is already guaranteed, anything above is cut off
+	 * @param ply - distance from the root
+	 * @param nullAllowed - false right after a null move so two are never made in a row
+	 * @return score of the position for the side to move
+	 */
+	private int alphabeta(Chessboard grid, int depth, int alpha, int beta, int ply, boolean nullAllowed) {
+		nodes++;
+		pvLength[ply] = 0;
+		if (limited && (nodes >= nodeLimit || ((nodes & CLOCK_INTERVAL) == 0 && System.nanoTime() >= deadline))) { // Out of budget
+			stopped = true;
+		}
+		if (stopped) { // Unwinds quickly, the unfinished depth is thrown away
+			return 0;
+		}
+		if (ply > 0 && (grid.isRepetition() || grid.isFiftyMoveRule())) { // Draw
+			return 0;
+		}
+
+		boolean white = grid.isWhiteTurn(), inCheck = grid.isCheck(white), pvNode = beta - alpha > 1;
+		if (inCheck && checkExtensions) { // Look further into forcing lines
+			depth++;
+		}
+		if (depth <= 0 || ply >= MAX_PLY - 1) { // Base case - don't go any further
+			return evaluate(grid);
+		}
+
+		/* A deep enough search of the same position already settles this node */
+		long entry = (table != null) ? table.probe(grid.getHash()) : 0;
+		if (entry != 0 && !pvNode && ply > 0 && TranspositionTable.depth(entry) >= depth) {
+			int stored = TranspositionTable.score(entry, ply), bound = TranspositionTable.bound(entry);
+			if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && stored >= beta)
+					|| (bound == TranspositionTable.UPPER && stored <= alpha)) {
+				return stored;
+			}
+		}
+
+		int eval = (inCheck) ? -INFINITY : evaluate(grid);
+
+		/* Reverse futility - far enough above beta that no quiet move will bring it back down */
+		if (futility && !pvNode && !inCheck && depth <= REVERSE_FUTILITY_DEPTH && Math.abs(beta) < MATE_BOUND
+				&& eval - REVERSE_FUTILITY_MARGIN * depth >= beta) {
+			return eval;
+		}
+
+		/* Null move - if passing still beats beta then a real move will too, except in zugzwang */
+		if (nullMove && nullAllowed && !pvNode && !inCheck && depth > NULL_MOVE_REDUCTION && eval >= beta && hasPieces(grid, white)) {
+			Chessboard copy = new Chessboard(grid);
+			copy.makeNullMove();
+			int curr = -alphabeta(copy, depth - 1 - NULL_MOVE_REDUCTION, -beta, -beta + 1, ply + 1, false);
+			if (curr >= beta) {
+				return (curr >= MATE_BOUND) ? beta : curr; // Never trust an unproven mate
+			}
+		}
+
+		ArrayList<Move> moves = orderMoves(grid, (ply == 0) ? new ArrayList<Move>(grid.getLegalMoves()) : grid.getLegalMoves(white));
+		if (ply == 0) { // Root moves that already have a line of their own
+			moves.removeAll(excluded);
+		}
+		Move hashMove = (entry != 0) ? TranspositionTable.move(entry) : null;
+		if (hashMove != null && moves.remove(hashMove)) { // Best move the last time this position was searched
+			moves.add(0, hashMove);
+		}
+		if (followPv) { // Search the previous iteration's move first while still on its line
+			followPv = ply < previousPv.length && moves.remove(previousPv[ply]);
+			if (followPv) { moves.add(0, previousPv[ply]); }
+		}
+		if (moves.isEmpty()) { // Checkmate or stalemate, sooner mates score higher
+			return (inCheck) ? -MATE + ply : 0;
+		}
+
+		int originalAlpha = alpha;
+		Move bestMove = null;
+		boolean prune = futility && !pvNode && !inCheck && depth < FUTILITY_MARGINS.length && Math.abs(alpha) < MATE_BOUND
+				&& eval + FUTILITY_MARGINS[depth] <= alpha;
+		int best = -INFINITY, count = 0, curr;
+		for (Move move : moves) {
+			boolean quiet = isQuiet(grid, move);
+			Chessboard copy = new Chessboard(grid); // DEEP copy of the board
+			copy.makeMove(move);
+			boolean givesCheck = copy.isCheck(!white);
+			count++;
+
+			/* Futility - a quiet move cannot raise the score enough this close to the leaves */
+			if (prune && quiet && !givesCheck && best > -INFINITY) {
+				best = Math.max(best, eval + FUTILITY_MARGINS[depth]);
+				continue;
+			}
+
+			if (count == 1) { // First move is expected to be best so it gets the full window
+				curr = -alphabeta(copy, depth - 1, -beta, -alpha, ply + 1, true);
+				followPv = false; // Siblings are off the previous line
+			} else {
+				/* Late move reductions - well ordered quiet moves late in the list rarely matter */
+				int reduction = 0;
+				if (lateMoveReductions && quiet && !inCheck && !givesCheck && depth >= LMR_MIN_DEPTH && count > LMR_MIN_MOVES) {
+					reduction = (count > LMR_MIN_MOVES * 3) ? 2 : 1;
+				}
+				
+				/* Zero window only proves the move is no better than alpha */
+				curr = -alphabeta(copy, depth - 1 - reduction, -alpha - 1, -alpha, ply + 1, true);
+				if (curr > alpha && reduction > 0) { // Fail high - search again at full depth
+					curr = -alphabeta(copy, depth - 1, -alpha - 1, -alpha, ply + 1, true);
+				}
+				if (curr > alpha && curr < beta) { // Better than expected - find its exact score
+					curr = -alphabeta(copy, depth - 1, -beta, -alpha, ply + 1, true);
+				}
+			}
+
+			if (curr > best) {
+				best = curr;
+				bestMove = move;
+			}
+			if (best > alpha) {
+				alpha = best;
+				updatePv(ply, move);
+			}
+			if (alpha >= beta) { break; } // Cutoff - no need to keep searching
+		}
+		
+		if (table != null && !stopped && (ply > 0 || excluded.isEmpty())) { // Root lines missing moves are not the whole position
+			int bound = (best <= originalAlpha) ? TranspositionTable.UPPER : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			table.store(grid.getHash(), bestMove, best, depth, bound, ply);
+		}
+		return best;
+	}
+	
+	/**
+	 * Stores move followed by the line below it as the best line from ply
+	 * @param ply
+	 * @param move
+	 */
+	private void updatePv(int ply, Move move) {
+		pvTable[ply][0] = move;
+		System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, pvLength[ply + 1]);
+		pvLength[ply] = pvLength[ply + 1] + 1;
+	}
+
+	/**
+	 * @param grid
+	 * @return the score of the board from the side to move's point of view
+	 */
+	private int evaluate(Chessboard grid) {
+		int score = grid.score();
+		return grid.isWhiteTurn() ? score : -score;
+	}
+
+	/**
+	 * Guards the null move against zugzwang, which mostly happens in pawn endings
+	 * @param grid
+	 * @param white
+	 * @return true if the side has a piece other than its king and pawns
+	 */
+	private boolean hasPieces(Chessboard grid, boolean white) {
+		for (Piece piece : grid.getColorPieces(white)) {
+			int type = Math.abs(piece.getValue());
+			if (type != Chessboard.PAWN && type != Chessboard.KING) { return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * @param grid
+	 * @param move
+	 * @return true if the move is neither a capture nor a promotion
+	 */
+	private boolean isQuiet(Chessboard grid, Move move) {
+		return move.getPromotion() == 0 && grid.capturedPiece(move.getFrom().getX(), move.getFrom().getY(),
+				move.getTo().getX(), move.getTo().getY()) == null;
+	}
+
+	/**
+	 * Sorts moves so the ones most likely to be best are searched first:
+	 * promotions, then captures of the most valuable piece by the least
+	 * valuable attacker, then quiet moves
+	 * @param grid
+	 * @param moves
+	 * @return the sorted list
+	 */
+	private ArrayList<Move> orderMoves(Chessboard grid, ArrayList<Move> moves) {
+		moves.sort((a, b) -> orderScore(grid, b) - orderScore(grid, a));
+		return moves;
+	}
+
+	/**
+	 * @param grid
+	 * @param move
+	 * @return how early the move should be searched, higher is earlier
+	 */
+	private int orderScore(Chessboard grid, Move move) {
+		Coordinate from = move.getFrom(), to = move.getTo();
+		Piece captured = grid.capturedPiece(from.getX(), from.getY(), to.getX(), to.getY());
+		int score = move.getPromotion() * 100;
+		if (captured != null) {
+			int attacker = Math.min(Math.abs(grid.pieceAt(from.getX(), from.getY()).getValue()), Chessboard.QUEEN + 1);
+			score += Math.abs(captured.getValue()) * 10 - attacker + 10;
+		}
+		return score;
+	}
+}
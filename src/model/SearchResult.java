@@ -0,0 +1,64 @@
+/**
+ * @author Danny Cummings
+ * This class holds the outcome of a search - the best move, its score,
+ * how deep the search went, how many positions it visited, and the
+ * principal variation, which is the line of play the search expects
+ */
+package model;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.List;
+
+public class SearchResult {
+	private Move bestMove;
+	private int score;  // In centipawns from the point of view of the side that searched
+	private int depth;
+	private long nodes;
+	private List<Move> pv;
+	
+	public SearchResult(Move bestMove, int score, int depth, long nodes, List<Move> pv) {
+		this.bestMove = bestMove;
+		this.score = score;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.pv = pv;
+	}
+	
+	public Move getBestMove() {
+		return bestMove;
+	}
+	
+	public int getScore() {
+		return score;
+	}
+	
+	public int getDepth() {
+		return depth;
+	}
+	
+	public long getNodes() {
+		return nodes;
+	}
+	
+	public List<Move> getPv() {
+		return pv;
+	}
+	
+	/**
+	 * @return true if the score is a forced mate for either side
+	 */
+	public boolean isMate() {
+		return Math.abs(score) > Search.MATE_BOUND;
+	}
+	
+	@Override
+	public String toString() {
+		String scoreText = isMate() ? "mate " + ((score > 0) ? (Search.MATE - score + 1) / 2 : -(Search.MATE + score) / 2) : "score " + score;
+		StringBuilder line = new StringBuilder("depth " + depth + " " + scoreText + " nodes " + nodes + " pv");
+		for (Move move : pv) {
+			line.append(' ').append(move);
+		}
+		return line.toString();
+	}
+}
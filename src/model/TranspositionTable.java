@@ -0,0 +1,184 @@
+/**
+ * @author Danny Cummings
+ * This class remembers what the search found in positions it has already
+ * searched, keyed by the position's hash - the depth searched, the score
+ * and whether it is exact or only a bound, and the best move, which is
+ * searched first the next time the position is reached
+ * Each entry is packed into one long and stored as the key XORed with the
+ * data, the same way as the pawn table, so a half-written entry from
+ * another thread fails to match instead of giving a wrong score
+ * Entries searched deep enough can also be queued to be shared with other
+ * searches, which is how distributed workers pass results to each other
+ */
+package model;
+
+/* Data Structures */
+import java.nio.LongBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class TranspositionTable {
+
+	public static final int DEFAULT_SIZE = 1 << 18; // Entries
+
+	public static final int EXACT = 1, LOWER = 2, UPPER = 3; // Kinds of score - exact, at least, at most
+
+	private long[] keys; // Hash XOR data
+	private long[] data; // Packed entries
+	private int mask;
+
+	private int shareDepth = Integer.MAX_VALUE; // Entries at least this deep are queued to be shared, never by default
+	private ConcurrentLinkedQueue<long[]> shared = new ConcurrentLinkedQueue<long[]>(); // Pairs of hash and data
+
+	/**
+	 * @param size - number of entries, rounded down to a power of two
+	 */
+	public TranspositionTable(int size) {
+		size = Integer.highestOneBit(Math.max(size, 1));
+		keys = new long[size];
+		data = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @param hash
+	 * @return the packed entry of the position, 0 if it is not stored
+	 */
+	public long probe(long hash) {
+		int index = (int) hash & mask;
+		long entry = data[index];
+		return (entry != 0 && (keys[index] ^ entry) == hash) ? entry : 0;
+	}
+
+	/**
+	 * Stores what the search found in a position, queuing it to be shared if
+	 * it is deep enough
+	 * @param hash
+	 * @param move - best move, may be null
+	 * @param score - from the side to move's point of view
+	 * @param depth - plies searched
+	 * @param bound - EXACT, LOWER or UPPER
+	 * @param ply - distance from the root, so mate scores are stored as distance from this position
+	 */
+	public void store(long hash, Move move, int score, int depth, int bound, int ply) {
+		if (score >= Search.MATE_BOUND) {
+			score += ply;
+		} else if (score <= -Search.MATE_BOUND) {
+			score -= ply;
+		}
+		long entry = pack(move, score, depth, bound);
+		if (merge(hash, entry) && depth >= shareDepth) {
+			shared.add(new long[] { hash, entry });
+		}
+	}
+
+	/**
+	 * Stores a packed entry, such as one shared by another search, unless the
+	 * slot already holds a deeper search of the same position
+	 * @param hash
+	 * @param entry
+	 * @return true if the entry was stored
+	 */
+	public boolean merge(long hash, long entry) {
+		int index = (int) hash & mask;
+		long old = data[index];
+		if (old != 0 && (keys[index] ^ old) == hash && depth(old) > depth(entry)) {
+			return false;
+		}
+		data[index] = entry;
+		keys[index] = hash ^ entry;
+		return true;
+	}
+
+	/**
+	 * @param depth - entries searched at least this deep are queued by store
+	 */
+	public void setShareDepth(int depth) {
+		shareDepth = depth;
+	}
+
+	/**
+	 * @return the oldest queued pair of hash and packed entry, null if there are none
+	 */
+	public long[] pollShared() {
+		return shared.poll();
+	}
+
+	/**
+	 * Empties the table
+	 */
+	public void clear() {
+		keys = new long[keys.length];
+		data = new long[data.length];
+		shared.clear();
+	}
+
+	/**
+	 * Copies every slot into the buffer, keys then entries, while a search may
+	 * still be storing - a slot caught half-written fails to match when read back
+	 * @param buffer - with room for twice getSize() longs
+	 */
+	public void save(LongBuffer buffer) {
+		buffer.put(keys).put(data);
+	}
+
+	/**
+	 * Replaces every slot with the ones save wrote to the buffer
+	 * @param buffer - from a table of the same size
+	 */
+	public void load(LongBuffer buffer) {
+		buffer.get(keys).get(data);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int getSize() {
+		return keys.length;
+	}
+
+	/**
+	 * Bits 0 - 5 from square, 6 - 11 to square, 12 - 15 promotion, 16 - 47 score,
+	 * 48 - 55 depth and 56 - 57 bound, so a stored entry is never 0
+	 * @param move
+	 * @param score
+	 * @param depth
+	 * @param bound
+	 * @return the packed entry
+	 */
+	private static long pack(Move move, int score, int depth, int bound) {
+		long entry = (move != null) ? move.pack() : 0;
+		return entry | ((score & 0xFFFFFFFFL) << 16) | ((long) Math.min(Math.max(depth, 0), 255) << 48) | ((long) bound << 56);
+	}
+
+	/**
+	 * @param entry
+	 * @return the best move, null if none was stored
+	 */
+	public static Move move(long entry) {
+		if (((int) entry & 63) == ((int) (entry >>> 6) & 63)) { return null; } // From and to the same square
+		return Move.unpack((int) entry);
+	}
+
+	/**
+	 * @param entry
+	 * @param ply - distance from the root of the search reading the entry
+	 * @return the score from the side to move's point of view
+	 */
+	public static int score(long entry, int ply) {
+		int score = (int) (entry >>> 16);
+		if (score >= Search.MATE_BOUND) {
+			return score - ply;
+		} else if (score <= -Search.MATE_BOUND) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	public static int depth(long entry) {
+		return (int) (entry >>> 48) & 255;
+	}
+
+	public static int bound(long entry) {
+		return (int) (entry >>> 56) & 3;
+	}
+}
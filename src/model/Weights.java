@@ -0,0 +1,115 @@
+/**
+ * @author Danny Cummings
+ * This class holds the weights the board is scored with, in hundredths
+ * of a pawn (centipawns)
+ * The default weights match the original piece values, and a weights file
+ * written by the tuner replaces them when the program starts
+ */
+package model;
+
+/* IO */
+import java.io.File;
+
+/* Data Structures */
+import java.util.HashMap;
+import java.util.Map;
+
+/* Utility Classes */
+import utils.ChessUtils;
+
+public class Weights {
+	
+	public static final String FILENAME = "weights.txt"; // Loaded at startup if it exists
+	
+	/* Index of each weight, which is also the index of its feature in Chessboard.features() */
+	public static final int PAWN = 0, KNIGHT = 1, BISHOP = 2, ROOK = 3, QUEEN = 4, MOBILITY = 5,
+							DOUBLED = 6, ISOLATED = 7, PASSED = 8, SHIELD = 9, COUNT = 10;
+	
+	public static final String[] NAMES = { "pawn", "knight", "bishop", "rook", "queen", "mobility",
+										"doubled", "isolated", "passed", "shield" };
+	
+	/* Mobility was 1/10 of a pawn per move, the pawn structure weights are per pawn */
+	private static final int[] DEFAULTS = { 100, 200, 300, 500, 900, 10, -15, -10, 20, 10 };
+	
+	private static int[] weights = DEFAULTS.clone();
+	
+	static {
+		if (new File(FILENAME).exists()) {
+			try {
+				load(FILENAME);
+			} catch (RuntimeException e) { // A bad file must not stop the board from scoring
+				System.err.println("Could not load " + FILENAME + ", using the default weights: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * @param index
+	 * @return the weight at the given index
+	 */
+	public static int get(int index) {
+		return weights[index];
+	}
+	
+	/**
+	 * @return a copy of all the weights
+	 */
+	public static int[] getAll() {
+		return weights.clone();
+	}
+	
+	/**
+	 * @param value - signed value of a piece
+	 * @return index of the piece's weight, -1 for kings since both sides always have one
+	 */
+	public static int index(int value) {
+		switch (Math.abs(value)) {
+		case Chessboard.PAWN:   return PAWN;
+		case Chessboard.KNIGHT: return KNIGHT;
+		case Chessboard.BISHOP: return BISHOP;
+		case Chessboard.ROOK:   return ROOK;
+		case Chessboard.QUEEN:  return QUEEN;
+		default:                return -1;
+		}
+	}
+	
+	/**
+	 * @param value - signed value of a piece
+	 * @return the signed weight of the piece, 0 for kings
+	 */
+	public static int piece(int value) {
+		int index = index(value);
+		if (index < 0) { return 0; }
+		return (value > 0) ? weights[index] : -weights[index];
+	}
+	
+	/**
+	 * Reads weights written by save(), keeping the current weight for any 
+	 * name missing from the file
+	 * @param filename
+	 */
+	public static void load(String filename) {
+		Map<String, String> map = new HashMap<String, String>();
+		ChessUtils.load(filename, map);
+		int[] values = weights.clone();
+		for (int i = 0; i < COUNT; i++) {
+			if (map.containsKey(NAMES[i])) {
+				values[i] = Integer.parseInt(map.get(NAMES[i]).trim());
+			}
+		}
+		weights = values;
+	}
+	
+	/**
+	 * Writes the given weights so they are loaded the next time the program starts
+	 * @param filename
+	 * @param values
+	 */
+	public static void save(String filename, int[] values) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < COUNT; i++) {
+			map.put(NAMES[i], Integer.toString(values[i]));
+		}
+		ChessUtils.writeMap(filename, map);
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * @author Danny Cummings
+ * This class holds the random keys used to hash a position on the board
+ * A position's hash is the XOR of the keys of every piece on its square,
+ * the castling rights, the en passant file and the side to move, so it
+ * can be updated incrementally as pieces move
+ */
+package model;
+
+import java.util.Random;
+
+public class Zobrist {
+	
+	private static final long SEED = 0x5DEECE66DL; // Fixed so hashes are stable between runs
+	
+	private static final long[][] PIECES = new long[12][64]; // [piece index][square]
+	private static final long[] CASTLING = new long[16];     // One key per combination of rights
+	private static final long[] EN_PASSANT = new long[8];    // One key per file
+	private static final long BLACK_TO_MOVE;
+	
+	static {
+		Random random = new Random(SEED);
+		for (int piece = 0; piece < 12; piece++) {
+			for (int square = 0; square < 64; square++) {
+				PIECES[piece][square] = random.nextLong();
+			}
+		}
+		for (int i = 0; i < 16; i++) {
+			CASTLING[i] = random.nextLong();
+		}
+		for (int i = 0; i < 8; i++) {
+			EN_PASSANT[i] = random.nextLong();
+		}
+		BLACK_TO_MOVE = random.nextLong();
+	}
+	
+	/**
+	 * Maps the value of a piece to an index from 0 to 11
+	 * White pieces are 0 - 5 and black pieces are 6 - 11 in the order
+	 * pawn, knight, bishop, rook, queen, king
+	 * @param value - signed value of the piece
+	 * @return index of the piece
+	 */
+	public static int index(int value) {
+		int type;
+		switch (Math.abs(value)) {
+		case 1:  type = 0; break;  // Pawn
+		case 2:  type = 1; break;  // Knight
+		case 3:  type = 2; break;  // Bishop
+		case 5:  type = 3; break;  // Rook
+		case 9:  type = 4; break;  // Queen
+		default: type = 5; break;  // King
+		}
+		return (value > 0) ? type : type + 6;
+	}
+	
+	/**
+	 * @param value - signed value of the piece
+	 * @param x
+	 * @param y
+	 * @return key of the given piece standing on (x, y)
+	 */
+	public static long piece(int value, int x, int y) {
+		return PIECES[index(value)][y * 8 + x];
+	}
+	
+	/**
+	 * @param rights - castling rights as bit flags
+	 * @return key of the castling rights
+	 */
+	public static long castling(int rights) {
+		return CASTLING[rights];
+	}
+	
+	/**
+	 * @param file - file of the en passant square
+	 * @return key of the en passant file
+	 */
+	public static long enPassant(int file) {
+		return EN_PASSANT[file];
+	}
+	
+	/**
+	 * @return key XORed in whenever it is black's turn
+	 */
+	public static long blackToMove() {
+		return BLACK_TO_MOVE;
+	}
+}
@@ -0,0 +1,320 @@
+/**
+ * @author Danny Cummings
+ * This class lets spectators watch a game live over TCP without polling -
+ * every move is pushed to every connected spectator as it is made
+ * Each move is written once into a small read only frame, and every
+ * spectator's queue holds a view of that same frame, so the work of a move
+ * that depends on the number of spectators is only handing them the frame.
+ * All sockets are non-blocking and served by one selector thread, which
+ * owns every spectator, so publishing never waits on a slow connection
+ * A spectator's queue holds at most QUEUE_LIMIT frames. One that falls that
+ * far behind has its queued moves dropped and is sent the current position
+ * instead, which it can carry on from
+ *
+ * Run without the GUI: java utils.Broadcaster port [millis]
+ * which plays random games, one move every millis (default 100), for load
+ * testing with java utils.Spectators
+ *
+ * Every frame is FRAME_BYTES long:
+ *   type      1 byte    MOVE, or SNAPSHOT when joining, after falling behind, or for a new game
+ *   sequence  4 bytes   number of positions published so far
+ *   move      2 bytes   from square, to square and promotion, 0 in a snapshot
+ *   time      8 bytes   milliseconds since the epoch when it was published
+ *   position  32 bytes  the position after the move, as Chessboard.encode writes it
+ */
+package utils;
+
+/* Networking */
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/* Data Structures */
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Move;
+
+public class Broadcaster {
+
+	public static final byte MOVE = 1, SNAPSHOT = 2; // Frame types
+	public static final int FRAME_BYTES = 1 + 4 + 2 + 8 + Chessboard.ENCODED_BYTES;
+
+	static final int QUEUE_LIMIT = 256,    // Frames a spectator may fall behind before it is resent the position
+					SEND_BUFFER = 16384,   // Socket send buffer, small so a stalled spectator shows up in its queue
+					BACKLOG = 4096;        // Connections waiting to be accepted, for many spectators joining at once
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Frame[]> outbox = new ConcurrentLinkedQueue<Frame[]>(); // Published, not yet fanned out
+	private volatile boolean open = true;
+
+	private int sequence = 0; // Only touched by the publishing thread
+	private final AtomicInteger spectators = new AtomicInteger();
+	private final AtomicLong resyncs = new AtomicLong();
+
+	/* Only touched by the selector thread */
+	private Frame latest = null; // Snapshot of the current position, sent to each new spectator
+
+	/**
+	 * An immutable encoded frame, shared by every spectator it is sent to
+	 */
+	private static class Frame {
+		private final ByteBuffer bytes;
+
+		private Frame(byte type, int sequence, int move, long time, Chessboard grid) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_BYTES);
+			buffer.put(type).putInt(sequence).putShort((short) move).putLong(time);
+			grid.encode(buffer);
+			buffer.flip();
+			bytes = buffer.asReadOnlyBuffer();
+		}
+
+		private Frame(Frame frame, byte type) { // Same frame with another type
+			ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_BYTES);
+			buffer.put(frame.bytes.duplicate()).put(0, type).flip();
+			bytes = buffer.asReadOnlyBuffer();
+		}
+
+		/**
+		 * @return a view of the frame with its own position, for one spectator to send
+		 */
+		private ByteBuffer view() {
+			return bytes.duplicate();
+		}
+	}
+
+	/**
+	 * A connected spectator, with the frames it has still to be sent
+	 */
+	private static class Spectator {
+		private final SocketChannel channel;
+		private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+
+		private Spectator(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Starts listening for spectators
+	 * @param port
+	 * @throws IOException
+	 */
+	public Broadcaster(int port) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port), BACKLOG);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		thread = new Thread(this::serve, "Broadcaster");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sends a move to every spectator, encoding it once
+	 * @param grid - the position after the move
+	 * @param move - the move just made, null when a new position is set up
+	 */
+	public synchronized void publish(Chessboard grid, Move move) {
+		Frame frame = new Frame((move == null) ? SNAPSHOT : MOVE, ++sequence, (move == null) ? 0 : move.pack(),
+				System.currentTimeMillis(), grid);
+		outbox.add(new Frame[] { frame, (move == null) ? frame : new Frame(frame, SNAPSHOT) });
+		selector.wakeup();
+	}
+
+	/**
+	 * @return spectators connected
+	 */
+	public int getSpectators() {
+		return spectators.get();
+	}
+
+	/**
+	 * @return times a spectator fell behind and was resent the position
+	 */
+	public long getResyncs() {
+		return resyncs.get();
+	}
+
+	/**
+	 * Disconnects every spectator and stops listening
+	 */
+	public void close() {
+		open = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Loop of the selector thread - fans out published frames, accepts
+	 * spectators and writes to the ones whose sockets have room
+	 */
+	private void serve() {
+		try {
+			while (open) {
+				selector.select();
+				if (!outbox.isEmpty()) { // Queues every move published since the last pass, then writes each spectator once
+					for (Frame[] published; (published = outbox.poll()) != null; ) {
+						latest = published[1];
+						for (SelectionKey key : selector.keys()) {
+							if (key.attachment() != null) { deliver((Spectator) key.attachment(), published[0]); }
+						}
+					}
+					for (SelectionKey key : selector.keys()) {
+						if (key.attachment() != null) { flush(key); }
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) { continue; }
+					if (key.isAcceptable()) { accept(); }
+					else {
+						if (key.isReadable()) { read(key); }
+						if (key.isValid() && key.isWritable()) { flush(key); }
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Broadcaster stopped: " + e.getMessage());
+		} finally {
+			for (SelectionKey key : selector.keys()) { closeQuietly(key); }
+			try {
+				server.close();
+				selector.close();
+			} catch (IOException e) { }
+		}
+	}
+
+	/**
+	 * Registers every spectator waiting to connect and queues the current
+	 * position for each
+	 * @throws IOException
+	 */
+	private void accept() throws IOException {
+		for (SocketChannel channel; (channel = server.accept()) != null; ) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+			Spectator spectator = new Spectator(channel);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ, spectator);
+			spectators.incrementAndGet();
+			if (latest != null) {
+				spectator.queue.add(latest.view());
+				flush(key);
+			}
+		}
+	}
+
+	/**
+	 * Queues a frame for a spectator, dropping its queue for a snapshot of the
+	 * current position if it is full
+	 * @param spectator
+	 * @param frame
+	 */
+	private void deliver(Spectator spectator, Frame frame) {
+		if (spectator.queue.size() >= QUEUE_LIMIT) {
+			ByteBuffer head = spectator.queue.peekFirst(); // A frame half sent must be finished
+			spectator.queue.clear();
+			if (head.position() > 0) { spectator.queue.add(head); }
+			spectator.queue.add(latest.view());
+			resyncs.incrementAndGet();
+		} else {
+			spectator.queue.add(frame.view());
+		}
+	}
+
+	/**
+	 * Writes as many queued frames as the socket will take, asking to be told
+	 * when there is room for the rest
+	 * @param key
+	 */
+	private void flush(SelectionKey key) {
+		Spectator spectator = (Spectator) key.attachment();
+		try {
+			if (!spectator.queue.isEmpty()) {
+				spectator.channel.write(spectator.queue.toArray(new ByteBuffer[spectator.queue.size()]));
+			}
+			while (!spectator.queue.isEmpty() && !spectator.queue.peekFirst().hasRemaining()) {
+				spectator.queue.pollFirst();
+			}
+			key.interestOps(spectator.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			closeQuietly(key);
+		}
+	}
+
+	/**
+	 * Spectators send nothing, reading only notices when they hang up
+	 * @param key
+	 */
+	private void read(SelectionKey key) {
+		Spectator spectator = (Spectator) key.attachment();
+		try {
+			if (spectator.channel.read(ByteBuffer.allocate(64)) < 0) { closeQuietly(key); }
+		} catch (IOException e) {
+			closeQuietly(key);
+		}
+	}
+
+	private void closeQuietly(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) { }
+		if (key.attachment() != null) {
+			key.attach(null);
+			spectators.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Plays random games and broadcasts them, for testing with many spectators
+	 * @param args - port [millis]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: java utils.Broadcaster port [millis]");
+			return;
+		}
+		Broadcaster broadcaster = new Broadcaster(Integer.parseInt(args[0]));
+		long millis = (args.length > 1) ? Long.parseLong(args[1]) : 100;
+		Random random = new Random();
+		long published = 0, reported = System.currentTimeMillis();
+
+		while (true) {
+			Chessboard grid = Chessboard.fromFen(Chessboard.START_FEN);
+			broadcaster.publish(grid, null);
+			List<Move> moves;
+			while (!(moves = grid.getLegalMoves()).isEmpty() && !grid.isDraw()) {
+				Move move = moves.get(random.nextInt(moves.size()));
+				grid.makeMove(move);
+				broadcaster.publish(grid, move);
+				published++;
+				if (millis > 0) { Thread.sleep(millis); }
+
+				if (System.currentTimeMillis() - reported >= 1000) {
+					reported = System.currentTimeMillis();
+					System.out.println(published + " moves, " + broadcaster.getSpectators() + " spectators, "
+							+ broadcaster.getResyncs() + " resyncs");
+				}
+			}
+		}
+	}
+}
@@ -13,8 +13,16 @@ import java.io.IOException;
 /* Data Structures */
 import java.util.Map;
 
+/* Model Classes */
+import model.Chessboard;
+import model.Coordinate;
+import model.Move;
+
 public class ChessUtils {
 
+	private static final String PROMOTIONS = "nbrq";
+	private static final int[] PROMOTION_VALUES = { Chessboard.KNIGHT, Chessboard.BISHOP, Chessboard.ROOK, Chessboard.QUEEN };
+
 	/**
 	 * Writes content to a file called filename
 	 * If file exists, appends to end of file
@@ -33,6 +41,29 @@ public class ChessUtils {
 		}
 	}
 	
+	/**
+	 * Writes every entry of map to a file called filename, replacing the file
+	 * Keys are written on odd lines and values on even lines so the file
+	 * can be read back with load()
+	 * @param filename
+	 * @param map
+	 */
+	public static void writeMap(String filename, Map<String, String> map) {
+		try {
+			BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(filename, false));
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				bufferedWriter.write(entry.getKey());
+				bufferedWriter.newLine();
+				bufferedWriter.write(entry.getValue());
+				bufferedWriter.newLine();
+			}
+			
+			bufferedWriter.close(); 
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+	
 	/**
 	 * Reads content from a file named filename and stores information in map
 	 * Odd lines represent the key of the map, even lines represent the value
@@ -56,4 +87,28 @@ public class ChessUtils {
 			System.err.println(e.getMessage());
 		}
 	}
+	
+	/**
+	 * @param move
+	 * @return the move written as its squares, such as e2e4 or e7e8q
+	 */
+	public static String moveText(Move move) {
+		Coordinate from = move.getFrom(), to = move.getTo();
+		String text = "" + (char) ('a' + from.getX()) + (8 - from.getY()) + (char) ('a' + to.getX()) + (8 - to.getY());
+		for (int i = 0; i < PROMOTION_VALUES.length; i++) {
+			if (PROMOTION_VALUES[i] == move.getPromotion()) { text += PROMOTIONS.charAt(i); }
+		}
+		return text;
+	}
+
+	/**
+	 * @param text - written by moveText
+	 * @return the move
+	 */
+	public static Move parseMove(String text) {
+		Coordinate from = new Coordinate(text.charAt(0) - 'a', '8' - text.charAt(1)),
+				to = new Coordinate(text.charAt(2) - 'a', '8' - text.charAt(3));
+		int promotion = (text.length() > 4) ? PROMOTION_VALUES[PROMOTIONS.indexOf(text.charAt(4))] : 0;
+		return new Move(from, to, promotion);
+	}
 }
@@ -0,0 +1,296 @@
+/**
+ * @author Danny Cummings
+ * This class splits a search across worker processes that connect over TCP,
+ * so spare machines (or spare JVMs on one machine) can analyse a position
+ * deeper than one process could
+ * Each depth is searched the way Chessboard.dfs searches the root - every
+ * root move is handed to an idle worker as a job, the best move from the
+ * last depth first and on its own so the rest have a score to beat. The
+ * other moves then go out in parallel, each with the best score found so far
+ * as its lower bound. A worker that drops out has its job handed to another,
+ * and workers may join at any time
+ * Workers share deep transposition table entries through the coordinator,
+ * which passes every entry it receives on to every other worker
+ *
+ * Run: java utils.Coordinator port workers depth [fen]
+ * then start the workers: java utils.Worker [host] port
+ *
+ * Protocol, one message per line:
+ *   worker -> coordinator   READY
+ *                           RESULT id score nodes [pv moves]
+ *   coordinator -> worker   JOB id depth alpha beta move fen
+ *                           QUIT
+ *   both ways               TT hash entry
+ * Moves are written as squares such as e2e4 or e7e8q, scores are from the
+ * point of view of the side to move in the position the worker searches
+ */
+package utils;
+
+/* Networking */
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/* Data Structures */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Move;
+import model.Search;
+import model.SearchResult;
+
+public class Coordinator {
+
+	static final String READY = "READY", RESULT = "RESULT", JOB = "JOB", QUIT = "QUIT", TT = "TT";
+
+	private final ServerSocket server;
+	private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>(); // Everything the workers say, in order
+
+	/* Only touched by the searching thread */
+	private final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+	private long nextJob = 0;
+
+	/**
+	 * A connected worker
+	 */
+	private class Connection {
+		private final Socket socket;
+		private final PrintWriter out;
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			out = new PrintWriter(socket.getOutputStream(), true);
+		}
+
+		private synchronized void send(String message) {
+			out.println(message);
+		}
+
+		/**
+		 * Reads messages until the worker disconnects, relaying shared entries
+		 * straight away and queuing everything else for the search
+		 */
+		private void listen() {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith(TT)) {
+						for (Connection other : connections) {
+							if (other != this) { other.send(line); }
+						}
+					} else {
+						events.add(new Event(this, line.split(" ")));
+					}
+				}
+			} catch (IOException e) {
+				// Treated the same as a clean disconnect
+			}
+			connections.remove(this);
+			events.add(new Event(this, null));
+			try { socket.close(); } catch (IOException e) { }
+		}
+	}
+
+	/**
+	 * Something a worker said, or that it dropped out if the message is null
+	 */
+	private static class Event {
+		private final Connection connection;
+		private final String[] message;
+
+		private Event(Connection connection, String[] message) {
+			this.connection = connection;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Starts accepting workers in the background
+	 * @param port
+	 * @throws IOException if the port cannot be listened on
+	 */
+	public Coordinator(int port) throws IOException {
+		server = new ServerSocket(port);
+		Thread accept = new Thread(this::accept, "Coordinator accept");
+		accept.setDaemon(true);
+		accept.start();
+	}
+
+	/**
+	 * @return number of workers connected
+	 */
+	public int getWorkers() {
+		return connections.size();
+	}
+
+	/**
+	 * Tells the workers to exit and stops accepting new ones
+	 */
+	public void close() {
+		for (Connection connection : connections) {
+			connection.send(QUIT);
+		}
+		try { server.close(); } catch (IOException e) { }
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Connection connection = new Connection(server.accept());
+				connections.add(connection);
+				Thread listener = new Thread(connection::listen, "Coordinator worker");
+				listener.setDaemon(true);
+				listener.start();
+			} catch (IOException e) {
+				// Closed, or a worker failed to connect
+			}
+		}
+	}
+
+	/**
+	 * Searches the side to move's moves one ply deeper at a time up to depth,
+	 * sharing the root moves between the workers - waits for a worker if none
+	 * are connected
+	 * @param grid
+	 * @param depth
+	 * @param listener - told the result of every depth, may be null
+	 * @return the result of the deepest search, with a null best move if there are
+	 * no legal moves
+	 * @throws InterruptedException
+	 */
+	public synchronized SearchResult search(Chessboard grid, int depth, Search.Listener listener) throws InterruptedException {
+		String fen = grid.toFen();
+		ArrayList<Move> moves = new ArrayList<Move>(grid.getLegalMoves());
+		if (moves.isEmpty()) {
+			return new SearchResult(null, grid.isCheck(grid.isWhiteTurn()) ? -Search.MATE : 0, 0, 0, new ArrayList<Move>());
+		}
+
+		SearchResult result = null;
+		long nodes = 0;
+		for (int iteration = 1; iteration <= Math.min(depth, Search.MAX_DEPTH); iteration++) {
+			Map<Move, Integer> scores = new HashMap<Move, Integer>();
+			ArrayDeque<Move> pending = new ArrayDeque<Move>(moves);
+			Map<Connection, Move> assigned = new HashMap<Connection, Move>();
+			Map<Connection, Long> jobs = new HashMap<Connection, Long>();
+			int alpha = -Search.INFINITY;
+			boolean first = true; // The expected best move goes out alone
+			List<Move> bestPv = null;
+
+			while (!pending.isEmpty() || !assigned.isEmpty()) {
+				while (!pending.isEmpty() && !idle.isEmpty() && (!first || assigned.isEmpty())) {
+					Connection worker = idle.poll();
+					Move move = pending.poll();
+					long id = nextJob++;
+					assigned.put(worker, move);
+					jobs.put(worker, id);
+					worker.send(JOB + " " + id + " " + (iteration - 1) + " " + toChild(Search.INFINITY) + " " + toChild(alpha)
+							+ " " + ChessUtils.moveText(move) + " " + fen);
+				}
+
+				Event event = events.take();
+				Connection worker = event.connection;
+				if (event.message == null) { // Dropped out, its move goes back to the front
+					idle.remove(worker);
+					jobs.remove(worker);
+					Move move = assigned.remove(worker);
+					if (move != null) { pending.addFirst(move); }
+				} else if (event.message[0].equals(READY)) {
+					idle.add(worker);
+				} else if (event.message[0].equals(RESULT) && jobs.containsKey(worker)
+						&& jobs.get(worker) == Long.parseLong(event.message[1])) {
+					Move move = assigned.remove(worker);
+					jobs.remove(worker);
+					idle.add(worker);
+					first = false;
+
+					int score = toRoot(Integer.parseInt(event.message[2]));
+					nodes += Long.parseLong(event.message[3]);
+					scores.put(move, score);
+					if (score > alpha || bestPv == null) {
+						alpha = Math.max(alpha, score);
+						bestPv = new ArrayList<Move>();
+						bestPv.add(move);
+						for (int i = 4; i < event.message.length; i++) { bestPv.add(ChessUtils.parseMove(event.message[i])); }
+					}
+				}
+			}
+
+			/* Scores that failed low are only bounds, so the best move is the one that raised alpha */
+			moves.sort((a, b) -> scores.get(b) - scores.get(a));
+			moves.remove(bestPv.get(0));
+			moves.add(0, bestPv.get(0)); // Searched first at the next depth
+			result = new SearchResult(bestPv.get(0), alpha, iteration, nodes, bestPv);
+			if (listener != null) { listener.update(Collections.singletonList(result)); }
+		}
+		return result;
+	}
+
+	/**
+	 * @param score - of a position after a root move, from its side to move's point of view
+	 * @return the score from the root's point of view, mates one ply further away
+	 */
+	private static int toRoot(int score) {
+		int root = -score;
+		if (root >= Search.MATE_BOUND) {
+			return root - 1;
+		} else if (root <= -Search.MATE_BOUND) {
+			return root + 1;
+		}
+		return root;
+	}
+
+	/**
+	 * @param score - from the root's point of view
+	 * @return the same score after a root move, the inverse of toRoot
+	 */
+	private static int toChild(int score) {
+		if (Math.abs(score) >= Search.INFINITY) {
+			return -score;
+		} else if (score >= Search.MATE_BOUND) {
+			return -(score + 1);
+		} else if (score <= -Search.MATE_BOUND) {
+			return -(score - 1);
+		}
+		return -score;
+	}
+
+	/**
+	 * Waits for the given number of workers, searches the position to the given
+	 * depth printing each depth as it finishes, then tells the workers to exit
+	 * @param args - port, workers, depth and an optional FEN (the starting position by default)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: java utils.Coordinator port workers depth [fen]");
+			return;
+		}
+		int port = Integer.parseInt(args[0]), workers = Integer.parseInt(args[1]), depth = Integer.parseInt(args[2]);
+		String fen = (args.length > 3) ? String.join(" ", Arrays.copyOfRange(args, 3, args.length)) : Chessboard.START_FEN;
+
+		Coordinator coordinator = new Coordinator(port);
+		System.out.println("Waiting for " + workers + " workers on port " + port);
+		while (coordinator.getWorkers() < workers) {
+			Thread.sleep(100);
+		}
+
+		long start = System.currentTimeMillis();
+		coordinator.search(Chessboard.fromFen(fen), depth, lines -> System.out.println(lines.get(0) + " time "
+				+ (System.currentTimeMillis() - start) + "ms workers " + coordinator.getWorkers()));
+		coordinator.close();
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * @author Danny Cummings
+ * This class runs a long analysis of one position that survives restarts -
+ * the search is checkpointed to a file as it runs, and running it again on
+ * the same position and file carries on from the last depth saved
+ * The best lines are printed after every depth. Stopping it with Ctrl-C
+ * saves a last snapshot before it exits
+ *
+ * Run: java utils.DeepAnalysis file depth [fen]
+ */
+package utils;
+
+/* IO */
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/* Data Structures */
+import java.util.Arrays;
+import java.util.List;
+
+/* Model Classes */
+import model.Checkpoint;
+import model.Chessboard;
+import model.Search;
+import model.SearchResult;
+import model.TranspositionTable;
+
+public class DeepAnalysis {
+
+	private static final int TABLE_SIZE = 1 << 22,  // Entries, 64MB and twice that in the file
+							LINES = 3,              // Best lines searched
+							INTERVAL = 30000;       // Milliseconds between snapshots
+
+	/**
+	 * @param args - file, depth and an optional FEN (the starting position by default)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: java utils.DeepAnalysis file depth [fen]");
+			return;
+		}
+		int depth = Integer.parseInt(args[1]);
+		String fen = (args.length > 2) ? String.join(" ", Arrays.copyOfRange(args, 2, args.length)) : Chessboard.START_FEN;
+		Chessboard grid = Chessboard.fromFen(fen);
+
+		TranspositionTable table = new TranspositionTable(TABLE_SIZE);
+		Checkpoint checkpoint = new Checkpoint(Paths.get(args[0]), grid, table);
+		Search search = new Search();
+		search.setTranspositionTable(table);
+		search.setMultiPv(LINES);
+
+		List<SearchResult> saved = checkpoint.load();
+		if (!saved.isEmpty()) {
+			System.out.println("Resuming after depth " + saved.get(0).getDepth() + ": " + saved.get(0));
+			search.resume(saved);
+		}
+
+		Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> { // Ctrl-C ends the search, which saves on the way out
+			search.stop();
+			try {
+				main.join();
+			} catch (InterruptedException e) { }
+		}));
+
+		checkpoint.start(INTERVAL);
+		long start = System.currentTimeMillis();
+		search.analyze(grid, depth, lines -> {
+			checkpoint.update(lines);
+			System.out.println(lines.get(0) + " time " + (System.currentTimeMillis() - start) + "ms");
+			for (int i = 1; i < lines.size(); i++) { System.out.println("  " + lines.get(i)); }
+		});
+		checkpoint.close();
+		System.out.println((search.isStopped() ? "Stopped, " : "Done, ") + checkpoint.getSnapshots() + " snapshots saved");
+	}
+}
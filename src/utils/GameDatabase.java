@@ -0,0 +1,399 @@
+/**
+ * @author Danny Cummings
+ * This class stores played games in a compact binary form and finds every
+ * game that reached a given position
+ * Games are kept in a directory of segments, each holding up to 65536 games
+ * - a .games file and a .index file. A game is its result, its number of
+ * plies, and one byte per move, the move's place in the list of legal
+ * moves of its position. A game is read back by replaying those places
+ * from the starting position
+ * The index starts with a header - magic, version, a checksum of the order
+ * legal moves are generated in and the number of games, as ints - then
+ * holds the offset of every game in the segment followed by a
+ * sorted array of longs - the top 48 bits of a position's hash with the
+ * number of a game that reached it in the low 16 bits. A position is found
+ * by a binary search of each segment's index, which is memory-mapped so
+ * a lookup only reads the few pages it touches
+ * Segments are written once by the bulk importer and never changed, so
+ * importing more games only adds segments
+ * Since moves are stored as places in the list of legal moves, a segment
+ * written by another version or another move order would replay into
+ * different games, so one whose header does not match is rejected
+ *
+ * Import: java utils.GameDatabase import directory games.txt
+ * Query:  java utils.GameDatabase find directory [fen]
+ * Each line of the games file is a result (1-0, 0-1, 1/2-1/2 or *) and the
+ * moves of a game from the starting position written as squares, such as
+ * "1-0 e2e4 e7e5 g1f3"
+ */
+package utils;
+
+/* IO */
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Move;
+
+public class GameDatabase implements Closeable {
+
+	public static final int WHITE_WINS = 0, DRAW = 1, BLACK_WINS = 2, UNKNOWN = 3; // Results of a game
+
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x43484442, // "CHDB"
+							HEADER_BYTES = 16,
+							SEGMENT_GAMES = 1 << 16, // Games per segment, numbered in the low bits of an index entry
+							GAME_BITS = 16;
+	private static final long HASH_MASK = -1L << GAME_BITS; // Part of a position's hash kept in the index
+
+	private static final String GAMES = ".games", INDEX = ".index";
+
+	/* Positions whose legal moves, in the order they are generated, make the move order checksum */
+	private static final String[] ORDER_FENS = { Chessboard.START_FEN,
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"n1n5/PPPk4/8/8/8/8/4Kppp/5N1N b - - 0 1" };
+	private static final int MOVE_ORDER = moveOrder();
+
+	/* Offsets in the header */
+	private static final int VERSION_AT = 4, ORDER_AT = 8, COUNT_AT = 12;
+
+	private final ArrayList<ByteBuffer> games = new ArrayList<ByteBuffer>(); // Each segment's games
+	private final ArrayList<int[]> offsets = new ArrayList<int[]>();         // Where each game starts in its segment
+	private final ArrayList<LongBuffer> indexes = new ArrayList<LongBuffer>(); // Each segment's sorted entries
+
+	/**
+	 * A game read from a line of text and encoded, null fields if it could not be read
+	 */
+	private static class Encoded {
+		private byte[] record;    // Result, plies and moves
+		private long[] positions; // Hash of every position the game reached
+	}
+
+	/**
+	 * Maps every segment in the directory
+	 * @param directory
+	 * @throws IOException if a segment was written by another version or move order
+	 */
+	public GameDatabase(String directory) throws IOException {
+		for (int segment = 0; new File(directory, name(segment) + INDEX).exists(); segment++) {
+			ByteBuffer index = map(new File(directory, name(segment) + INDEX));
+			try (FileChannel channel = FileChannel.open(new File(directory, name(segment) + GAMES).toPath())) {
+				games.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+			int[] starts = new int[index.getInt(COUNT_AT)];
+			index.position(HEADER_BYTES);
+			index.asIntBuffer().get(starts);
+			offsets.add(starts);
+			index.position(HEADER_BYTES + starts.length * 4);
+			indexes.add(index.slice().asLongBuffer());
+		}
+	}
+
+	/**
+	 * Maps a segment's index and checks its header
+	 * @param file
+	 * @return the index, read only
+	 * @throws IOException if the segment was written by another version or move order
+	 */
+	private static ByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath())) {
+			ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (index.limit() < HEADER_BYTES || index.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a game database index");
+			}
+			if (index.getInt(VERSION_AT) != VERSION || index.getInt(ORDER_AT) != MOVE_ORDER) {
+				throw new IOException(file + " was written by another version of the database, import its games again");
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @return a checksum of the legal moves of a few positions in the order
+	 * they are generated, which changes if the order does
+	 */
+	private static int moveOrder() {
+		int order = 0;
+		for (String fen : ORDER_FENS) {
+			Chessboard grid = Chessboard.fromFen(fen);
+			for (Move move : grid.getLegalMoves(grid.isWhiteTurn())) {
+				order = order * 31 + move.pack();
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * @return number of games stored
+	 */
+	public long getGames() {
+		long count = 0;
+		for (int[] starts : offsets) { count += starts.length; }
+		return count;
+	}
+
+	/**
+	 * Finds every game that reached the position - the index keeps 48 bits of
+	 * the hash, so a game that reached a different position with the same bits
+	 * is returned too, which is very unlikely
+	 * @param hash - of the position, from Chessboard.getHash
+	 * @return the games, each as its segment in the high 32 bits and its number in the low 32
+	 */
+	public long[] find(long hash) {
+		long key = hash & HASH_MASK;
+		long[] found = new long[0];
+		int count = 0;
+		for (int segment = 0; segment < indexes.size(); segment++) {
+			LongBuffer index = indexes.get(segment);
+			int low = 0, high = index.limit(); // First entry not below the key
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (index.get(mid) < key) { low = mid + 1; } else { high = mid; }
+			}
+			for (int i = low; i < index.limit() && (index.get(i) & HASH_MASK) == key; i++) {
+				if (count == found.length) { found = Arrays.copyOf(found, Math.max(16, count * 2)); }
+				found[count++] = ((long) segment << 32) | (index.get(i) & ~HASH_MASK);
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * @param hash - of the position
+	 * @return how many games that reached the position white won, drew and black won
+	 */
+	public int[] results(long hash) {
+		int[] counts = new int[UNKNOWN + 1];
+		for (long game : find(hash)) { counts[result(game)]++; }
+		return counts;
+	}
+
+	/**
+	 * @param game - as returned by find
+	 * @return WHITE_WINS, DRAW, BLACK_WINS or UNKNOWN
+	 */
+	public int result(long game) {
+		return games.get((int) (game >>> 32)).get(offsets.get((int) (game >>> 32))[(int) game]);
+	}
+
+	/**
+	 * Replays a game from its stored moves
+	 * @param game - as returned by find
+	 * @return the moves of the game
+	 */
+	public ArrayList<Move> moves(long game) {
+		ByteBuffer segment = games.get((int) (game >>> 32));
+		int start = offsets.get((int) (game >>> 32))[(int) game];
+		int plies = segment.getShort(start + 1) & 0xFFFF;
+		ArrayList<Move> moves = new ArrayList<Move>(plies);
+		Chessboard grid = Chessboard.fromFen(Chessboard.START_FEN);
+		for (int i = 0; i < plies; i++) {
+			Move move = grid.getLegalMoves(grid.isWhiteTurn()).get(segment.get(start + 3 + i) & 0xFF);
+			grid.makeMove(move);
+			moves.add(move);
+		}
+		return moves;
+	}
+
+	@Override
+	public void close() {
+		games.clear();
+		offsets.clear();
+		indexes.clear(); // Mappings are released once they are garbage collected
+	}
+
+	/**
+	 * Appends the games of a text file to the database as new segments,
+	 * encoding each block of games in parallel, and skips lines that are not
+	 * legal games
+	 * @param directory - created if it does not exist
+	 * @param filename
+	 * @return number of games imported
+	 * @throws IOException if a segment already there was written by another version or move order
+	 */
+	public static int importGames(String directory, String filename) throws IOException {
+		new File(directory).mkdirs();
+		int segment = 0;
+		while (new File(directory, name(segment) + INDEX).exists()) {
+			map(new File(directory, name(segment) + INDEX)); // Games are not added to a database they could not be read with
+			segment++;
+		}
+
+		int imported = 0;
+		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(filename))) {
+			ArrayList<String> block = new ArrayList<String>(SEGMENT_GAMES);
+			String line;
+			while ((line = bufferedReader.readLine()) != null) { /* null marks the end of file */
+				block.add(line);
+				if (block.size() == SEGMENT_GAMES) {
+					int written = writeSegment(directory, segment, block);
+					if (written > 0) { segment++; } // A block with no legal game writes no segment
+					imported += written;
+					block.clear();
+				}
+			}
+			if (!block.isEmpty()) {
+				imported += writeSegment(directory, segment, block);
+			}
+		}
+		return imported;
+	}
+
+	/**
+	 * Encodes a block of games in parallel and writes them as one segment,
+	 * the index last so a segment only counts once it is complete
+	 * @param directory
+	 * @param segment
+	 * @param block - at most SEGMENT_GAMES lines
+	 * @return number of games written
+	 * @throws IOException
+	 */
+	private static int writeSegment(String directory, int segment, ArrayList<String> block) throws IOException {
+		Encoded[] encoded = new Encoded[block.size()];
+		IntStream.range(0, block.size()).parallel().forEach(i -> encoded[i] = encode(block.get(i)));
+
+		int count = 0, entries = 0;
+		for (Encoded game : encoded) {
+			if (game.record != null) {
+				count++;
+				entries += game.positions.length;
+			}
+		}
+		if (count == 0) { return 0; }
+
+		int[] starts = new int[count];
+		long[] index = new long[entries];
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, name(segment) + GAMES))))) {
+			int number = 0, offset = 0, entry = 0;
+			for (Encoded game : encoded) {
+				if (game.record == null) { continue; }
+				starts[number] = offset;
+				out.write(game.record);
+				offset += game.record.length;
+				for (long hash : game.positions) { index[entry++] = (hash & HASH_MASK) | number; }
+				number++;
+			}
+		}
+
+		/* Sorted so lookups are a binary search, positions a game reached twice are kept once */
+		Arrays.parallelSort(index);
+		int unique = 0;
+		for (int i = 0; i < index.length; i++) {
+			if (i == 0 || index[i] != index[i - 1]) { index[unique++] = index[i]; }
+		}
+
+		File indexFile = new File(directory, name(segment) + INDEX), temporary = new File(directory, name(segment) + INDEX + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + starts.length * 4L + unique * 8L);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(MOVE_ORDER).putInt(starts.length);
+			buffer.asIntBuffer().put(starts);
+			buffer.position(HEADER_BYTES + starts.length * 4);
+			buffer.asLongBuffer().put(index, 0, unique);
+		}
+		if (!temporary.renameTo(indexFile)) { throw new IOException("Could not write " + indexFile); }
+		return count;
+	}
+
+	/**
+	 * Replays a game, recording each move's place among the legal moves and the
+	 * hash of every position reached
+	 * @param line - a result and the moves of the game
+	 * @return the encoded game, with null fields if the line is not a legal game
+	 */
+	private static Encoded encode(String line) {
+		Encoded game = new Encoded();
+		String[] fields = line.trim().split("\\s+");
+		int result = parseResult(fields[0]);
+		if (result < 0 || fields.length - 1 > 0xFFFF) { return game; }
+
+		int plies = fields.length - 1;
+		byte[] record = new byte[3 + plies];
+		long[] positions = new long[plies + 1];
+		record[0] = (byte) result;
+		record[1] = (byte) (plies >>> 8);
+		record[2] = (byte) plies;
+
+		Chessboard grid = Chessboard.fromFen(Chessboard.START_FEN);
+		positions[0] = grid.getHash();
+		try {
+			for (int i = 0; i < plies; i++) {
+				ArrayList<Move> legal = grid.getLegalMoves(grid.isWhiteTurn());
+				int place = legal.indexOf(ChessUtils.parseMove(fields[i + 1]));
+				if (place < 0) { return game; } // Illegal move
+				record[3 + i] = (byte) place;
+				grid.makeMove(legal.get(place));
+				positions[i + 1] = grid.getHash();
+			}
+		} catch (RuntimeException e) { // Malformed move
+			return game;
+		}
+		game.record = record;
+		game.positions = positions;
+		return game;
+	}
+
+	/**
+	 * @param field
+	 * @return the result the field is written as, -1 if it is not a result
+	 */
+	private static int parseResult(String field) {
+		switch (field) {
+		case "1-0":     return WHITE_WINS;
+		case "1/2-1/2": return DRAW;
+		case "0-1":     return BLACK_WINS;
+		case "*":       return UNKNOWN;
+		default:        return -1;
+		}
+	}
+
+	/**
+	 * @param segment
+	 * @return the file name of the segment without its extension
+	 */
+	private static String name(int segment) {
+		return String.format("%06d", segment);
+	}
+
+	/**
+	 * @param args - import directory games.txt, or find directory [fen]
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("import")) {
+			long start = System.currentTimeMillis();
+			int imported = importGames(args[1], args[2]);
+			System.out.println("Imported " + imported + " games in " + (System.currentTimeMillis() - start) + "ms");
+		} else if (args.length >= 2 && args[0].equals("find")) {
+			String fen = (args.length > 2) ? String.join(" ", Arrays.copyOfRange(args, 2, args.length)) : Chessboard.START_FEN;
+			try (GameDatabase database = new GameDatabase(args[1])) {
+				long start = System.nanoTime();
+				int[] counts = database.results(Chessboard.fromFen(fen).getHash());
+				System.out.println(database.getGames() + " games, position reached in " + (counts[WHITE_WINS] + counts[DRAW]
+						+ counts[BLACK_WINS] + counts[UNKNOWN]) + ": " + counts[WHITE_WINS] + " white wins, " + counts[DRAW]
+						+ " draws, " + counts[BLACK_WINS] + " black wins (" + (System.nanoTime() - start) / 1000 + "us)");
+			}
+		} else {
+			System.out.println("Usage: java utils.GameDatabase import directory games.txt");
+			System.out.println("       java utils.GameDatabase find directory [fen]");
+		}
+	}
+}
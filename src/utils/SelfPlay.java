@@ -0,0 +1,226 @@
+/**
+ * @author Danny Cummings
+ * This class generates labelled positions for tuning the evaluation and
+ * training the network - the engine plays itself with shallow searches on
+ * every core, and quiet positions from each game are written with the
+ * search's score and the game's result
+ * A position is quiet when the side to move is not in check, the move the
+ * search chose is not a capture or promotion, and the score is not decided
+ * Each game starts with a few random moves so no two games are alike, and
+ * a game that one side is clearly winning is adjudicated rather than played
+ * out
+ *
+ * Usage: java utils.SelfPlay directory positions [depth] [threads]
+ *
+ * Records are RECORD_BYTES long and written CHUNK_RECORDS to a file, each
+ * file gzipped and named by its number, 000000.gz, 000001.gz and so on:
+ *   position  32 bytes  as Chessboard.encode writes it
+ *   score     2 bytes   of the search, in centipawns from white's point of view
+ *   result    1 byte    of the game, 2 for a white win, 1 for a draw, 0 for a black win
+ */
+package utils;
+
+/* IO */
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Move;
+import model.Search;
+import model.SearchResult;
+import model.TranspositionTable;
+
+public class SelfPlay {
+
+	public static final int RECORD_BYTES = Chessboard.ENCODED_BYTES + 2 + 1,
+							CHUNK_RECORDS = 1 << 16; // Records in each file
+
+	public static final byte WHITE_WIN = 2, DRAW = 1, BLACK_WIN = 0;
+
+	private static final int DEFAULT_DEPTH = 4,
+							RANDOM_PLIES = 8,        // Random moves starting each game
+							MAX_PLIES = 400,         // Game length after which it is a draw
+							MAX_SCORE = 2000,        // Positions scored beyond this are decided, not sampled
+							ADJUDICATE_SCORE = 1000, // Score that wins the game if it holds
+							ADJUDICATE_PLIES = 8;    // Plies it must hold for
+
+	private final Path directory;
+	private final int depth;
+	private final long target; // Positions to write
+
+	private final AtomicLong written = new AtomicLong(), games = new AtomicLong();
+	private final AtomicInteger nextChunk = new AtomicInteger();
+
+	/**
+	 * @param directory - where the chunk files are written
+	 * @param depth - of every search
+	 * @param target - positions to write
+	 */
+	public SelfPlay(Path directory, int depth, long target) {
+		this.directory = directory;
+		this.depth = depth;
+		this.target = target;
+	}
+
+	/**
+	 * Plays games on the given number of threads until the positions are
+	 * written, printing the rate every few seconds
+	 * @param threads
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run(int threads) throws IOException, InterruptedException {
+		Files.createDirectories(directory);
+		List<Thread> players = new ArrayList<Thread>();
+		List<IOException> errors = new ArrayList<IOException>();
+		for (int i = 0; i < threads; i++) {
+			Thread player = new Thread(() -> {
+				try {
+					play();
+				} catch (IOException e) {
+					synchronized (errors) { errors.add(e); }
+				}
+			}, "Self play " + i);
+			player.setDaemon(true);
+			player.start();
+			players.add(player);
+		}
+
+		long start = System.nanoTime();
+		for (Thread player : players) {
+			while (player.isAlive()) {
+				player.join(5000);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%d positions from %d games, %.0f positions/sec, %.0f per core%n", written.get(),
+						games.get(), written.get() / seconds, written.get() / seconds / threads);
+			}
+		}
+		if (!errors.isEmpty()) { throw errors.get(0); }
+	}
+
+	/**
+	 * Plays games and fills chunks until enough positions are written
+	 * @throws IOException
+	 */
+	private void play() throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * RECORD_BYTES);
+		ByteBuffer game = ByteBuffer.allocate(MAX_PLIES * RECORD_BYTES);
+		Random random = new Random();
+		Search search = new Search(); // Each thread keeps its table from move to move and game to game
+		search.setTranspositionTable(new TranspositionTable(TranspositionTable.DEFAULT_SIZE));
+
+		while (written.get() < target) {
+			game.clear();
+			byte result = playGame(game, search, random);
+			games.incrementAndGet();
+
+			game.flip();
+			while (game.hasRemaining()) { // The result was not known when the records were written
+				game.put(game.position() + RECORD_BYTES - 1, result);
+				if (!chunk.hasRemaining()) { writeChunk(chunk); }
+				chunk.put(game.array(), game.position(), RECORD_BYTES);
+				game.position(game.position() + RECORD_BYTES);
+				if (written.incrementAndGet() >= target) { break; }
+			}
+		}
+		if (chunk.position() > 0) { writeChunk(chunk); }
+	}
+
+	/**
+	 * Plays one game, writing a record of every quiet position
+	 * @param game - where the records go, with the result left blank
+	 * @param search
+	 * @param random
+	 * @return the result
+	 */
+	private byte playGame(ByteBuffer game, Search search, Random random) {
+		Chessboard grid = Chessboard.fromFen(Chessboard.START_FEN);
+		for (int ply = 0; ply < RANDOM_PLIES; ply++) {
+			List<Move> moves = grid.getLegalMoves();
+			if (moves.isEmpty()) { return playGame(game, search, random); } // Over before it began, starts again
+			grid.makeMove(moves.get(random.nextInt(moves.size())));
+		}
+
+		int winning = 0; // Plies in a row one side has been winning, positive for white
+		for (int ply = RANDOM_PLIES; ply < MAX_PLIES; ply++) {
+			if (grid.getLegalMoves().isEmpty()) {
+				if (!grid.isCheck(grid.isWhiteTurn())) { return DRAW; }
+				return grid.isWhiteTurn() ? BLACK_WIN : WHITE_WIN;
+			}
+			if (grid.isDraw()) { return DRAW; }
+
+			SearchResult result = grid.dfs(depth, grid.isWhiteTurn(), search);
+			Move move = result.getBestMove();
+			int score = grid.isWhiteTurn() ? result.getScore() : -result.getScore();
+
+			boolean quiet = !grid.isCheck(grid.isWhiteTurn()) && move.getPromotion() == 0
+					&& grid.capturedPiece(move.getFrom().getX(), move.getFrom().getY(), move.getTo().getX(), move.getTo().getY()) == null;
+			if (quiet && Math.abs(score) < MAX_SCORE && Math.abs(score) < Search.MATE_BOUND) {
+				grid.encode(game);
+				game.putShort((short) score).put(DRAW);
+			}
+
+			if (score >= ADJUDICATE_SCORE) { winning = Math.max(winning, 0) + 1; }
+			else if (score <= -ADJUDICATE_SCORE) { winning = Math.min(winning, 0) - 1; }
+			else { winning = 0; }
+			if (Math.abs(winning) >= ADJUDICATE_PLIES) { return (winning > 0) ? WHITE_WIN : BLACK_WIN; }
+
+			grid.makeMove(move);
+		}
+		return DRAW;
+	}
+
+	/**
+	 * Compresses the chunk's records into the next numbered file and empties it
+	 * @param chunk
+	 * @throws IOException
+	 */
+	private void writeChunk(ByteBuffer chunk) throws IOException {
+		Path file = directory.resolve(String.format("%06d.gz", nextChunk.getAndIncrement()));
+		try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), 1 << 16)) {
+			out.write(chunk.array(), 0, chunk.position());
+		}
+		chunk.clear();
+	}
+
+	/**
+	 * Reads a chunk file back
+	 * @param file
+	 * @return its records, RECORD_BYTES each, laid out as they were written
+	 * @throws IOException
+	 */
+	public static ByteBuffer readChunk(Path file) throws IOException {
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 1 << 16)) {
+			return ByteBuffer.wrap(in.readAllBytes());
+		}
+	}
+
+	/**
+	 * @param args - directory positions [depth] [threads]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: java utils.SelfPlay directory positions [depth] [threads]");
+			return;
+		}
+		int depth = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		new SelfPlay(Paths.get(args[0]), depth, Long.parseLong(args[1])).run(threads);
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * @author Danny Cummings
+ * This class is a load generator for Broadcaster - it connects many
+ * spectators from one thread with non-blocking sockets and checks what
+ * they are sent
+ * Every spectator must see each move in sequence, unless it is sent a
+ * snapshot of the position, which it may be at any time. Some spectators
+ * can be made slow, reading only once a second, to make the broadcaster
+ * drop their queued moves and resend them the position
+ * Each second it prints the spectators connected, the frames received,
+ * how many were snapshots, moves out of sequence (which should be none)
+ * and the mean and worst time from publishing a frame to receiving it
+ *
+ * Run: java utils.Spectators host port count [slow]
+ */
+package utils;
+
+/* Networking */
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/* Model Classes */
+import model.Chessboard;
+
+public class Spectators {
+
+	private static final int SLOW_MILLIS = 1000, // How often a slow spectator reads
+							SLOW_BUFFER = 4096,  // Receive buffer of a slow spectator, small so it falls behind quickly
+							CHECK_EVERY = 1000;  // Frames between positions decoded to check they read back
+
+	/* Totals since the last report */
+	private long frames = 0, snapshots = 0, gaps = 0, latencySum = 0, latencyMax = 0, bad = 0;
+	private int connected = 0;
+
+	/**
+	 * One spectator's connection
+	 */
+	private static class Connection {
+		private final SocketChannel channel;
+		private final boolean slow;
+		private final ByteBuffer in = ByteBuffer.allocate(Broadcaster.FRAME_BYTES * 64);
+		private int sequence = -1; // Last sequence seen, -1 before the first snapshot
+		private long resumeAt = 0; // When a slow spectator next reads
+
+		private Connection(SocketChannel channel, boolean slow) {
+			this.channel = channel;
+			this.slow = slow;
+		}
+	}
+
+	/**
+	 * Connects the spectators and reads from them until the process is killed
+	 * @param host
+	 * @param port
+	 * @param count - spectators
+	 * @param slow - how many of them read only once a second
+	 * @throws IOException
+	 */
+	private void run(String host, int port, int count, int slow) throws IOException {
+		Selector selector = Selector.open();
+		List<SelectionKey> slowKeys = new ArrayList<SelectionKey>();
+		for (int i = 0; i < count; i++) {
+			SocketChannel channel = SocketChannel.open();
+			if (i < slow) { channel.setOption(StandardSocketOptions.SO_RCVBUF, SLOW_BUFFER); }
+			channel.configureBlocking(false);
+			channel.connect(new InetSocketAddress(host, port));
+			SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT, new Connection(channel, i < slow));
+			if (i < slow) { slowKeys.add(key); }
+		}
+		int connecting = count;
+
+		long reported = System.currentTimeMillis();
+		while (connected + connecting > 0) {
+			selector.select(100);
+			long now = System.currentTimeMillis();
+			for (SelectionKey key : slowKeys) { // Wakes up slow spectators whose turn to read has come
+				if (key.isValid() && key.interestOps() == 0 && ((Connection) key.attachment()).resumeAt > 0 && now >= ((Connection) key.attachment()).resumeAt) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (key.isValid() && key.isConnectable()) {
+					connecting--;
+					try {
+						((SocketChannel) key.channel()).finishConnect();
+						key.interestOps(SelectionKey.OP_READ);
+						connected++;
+					} catch (IOException e) {
+						key.cancel();
+						System.err.println("Could not connect: " + e.getMessage());
+					}
+				} else if (key.isValid() && key.isReadable()) {
+					read(key, now);
+				}
+			}
+
+			if (now - reported >= 1000) {
+				System.out.println(connected + " spectators, " + frames + " frames, " + snapshots + " snapshots, "
+						+ gaps + " gaps, " + bad + " bad positions, latency mean " + ((frames > 0) ? latencySum / frames : 0)
+						+ "ms max " + latencyMax + "ms");
+				frames = snapshots = gaps = latencySum = latencyMax = bad = 0;
+				reported = now;
+			}
+		}
+	}
+
+	/**
+	 * Reads what has arrived for a spectator and checks every whole frame
+	 * @param key
+	 * @param now - milliseconds since the epoch
+	 */
+	private void read(SelectionKey key, long now) {
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (connection.channel.read(connection.in) < 0) {
+				key.cancel();
+				connection.channel.close();
+				connected--;
+				return;
+			}
+		} catch (IOException e) {
+			key.cancel();
+			connected--;
+			return;
+		}
+
+		connection.in.flip();
+		while (connection.in.remaining() >= Broadcaster.FRAME_BYTES) {
+			int start = connection.in.position();
+			byte type = connection.in.get();
+			int sequence = connection.in.getInt();
+			connection.in.getShort(); // Move
+			long latency = now - connection.in.getLong();
+
+			if (type == Broadcaster.SNAPSHOT) {
+				snapshots++;
+			} else if (sequence != connection.sequence + 1) {
+				gaps++;
+			}
+			connection.sequence = sequence;
+			if (++frames % CHECK_EVERY == 0) {
+				try {
+					Chessboard.decode(connection.in);
+				} catch (IllegalArgumentException e) {
+					bad++;
+				}
+			}
+			connection.in.position(start + Broadcaster.FRAME_BYTES);
+			latencySum += latency;
+			latencyMax = Math.max(latencyMax, latency);
+		}
+		connection.in.compact();
+
+		if (connection.slow) { // Sleeps until its next turn
+			key.interestOps(0);
+			connection.resumeAt = now + SLOW_MILLIS;
+		}
+	}
+
+	/**
+	 * @param args - host port count [slow]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: java utils.Spectators host port count [slow]");
+			return;
+		}
+		new Spectators().run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+				(args.length > 3) ? Integer.parseInt(args[3]) : 0);
+	}
+}
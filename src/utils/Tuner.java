@@ -0,0 +1,277 @@
+/**
+ * @author Danny Cummings
+ * This class tunes the evaluation weights with the Texel method - every
+ * position in a labelled set is scored, the score is turned into an
+ * expected game result with a sigmoid, and the weights are moved by 
+ * gradient descent until the expected results best match the real ones
+ * Positions are broken down into features once and kept in primitive
+ * arrays, and each pass over them is split across all cores
+ * 
+ * Usage: java utils.Tuner positions.txt [epochs] [weights file]
+ * Each line of the positions file is a FEN followed by the game result, 
+ * written as 1-0, 0-1, 1/2-1/2 or [1.0], [0.0], [0.5]
+ */
+package utils;
+
+/* IO */
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/* Data Structures */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Weights;
+
+public class Tuner {
+	
+	private static final int BLOCK = 1 << 16,  // Lines read before extracting their features in parallel
+							DEFAULT_EPOCHS = 1000;
+	
+	private static final double LEARNING_RATE = 1.0, BETA1 = 0.9, BETA2 = 0.999, EPSILON = 1e-8; // Adam optimizer
+	
+	private static final int FEATURES = Weights.COUNT, CHUNKS = Runtime.getRuntime().availableProcessors();
+	
+	private short[] features = new short[BLOCK * FEATURES]; // Row per position, white minus black
+	private float[] results = new float[BLOCK];  // 1 for a white win, 0.5 for a draw, 0 for a black win
+	private int count = 0; // Number of positions loaded
+	
+	/**
+	 * Loads every labelled position in the file, skipping lines that cannot be read
+	 * @param filename
+	 * @throws IOException
+	 */
+	public Tuner(String filename) throws IOException {
+		BufferedReader bufferedReader = new BufferedReader(new FileReader(filename));
+		ArrayList<String> block = new ArrayList<String>(BLOCK);
+		String line;
+		while ((line = bufferedReader.readLine()) != null) { /* null marks the end of file */
+			block.add(line);
+			if (block.size() == BLOCK) {
+				addBlock(block);
+				block.clear();
+			}
+		}
+		addBlock(block);
+		bufferedReader.close();
+	}
+	
+	/**
+	 * Extracts the features of a block of lines in parallel and appends them
+	 * @param block
+	 */
+	private void addBlock(ArrayList<String> block) {
+		short[] blockFeatures = new short[block.size() * FEATURES];
+		float[] blockResults = new float[block.size()];
+		IntStream.range(0, block.size()).parallel().forEach(i -> {
+			blockResults[i] = -1; // Marks a line that could not be read
+			float result = parseResult(block.get(i));
+			if (result < 0) { return; }
+			try {
+				int[] positionFeatures = Chessboard.fromFen(parseFen(block.get(i))).features();
+				for (int f = 0; f < FEATURES; f++) {
+					blockFeatures[i * FEATURES + f] = (short) positionFeatures[f];
+				}
+				blockResults[i] = result;
+			} catch (RuntimeException e) {} // Malformed position
+		});
+		
+		for (int i = 0; i < block.size(); i++) {
+			if (blockResults[i] < 0) { continue; }
+			if (count == results.length) { // Grows the arrays
+				results = Arrays.copyOf(results, count * 2);
+				features = Arrays.copyOf(features, count * 2 * FEATURES);
+			}
+			System.arraycopy(blockFeatures, i * FEATURES, features, count * FEATURES, FEATURES);
+			results[count++] = blockResults[i];
+		}
+	}
+	
+	/**
+	 * @param line
+	 * @return the result of the game from white's point of view, -1 if none is found
+	 */
+	private static float parseResult(String line) {
+		if (line.contains("1/2-1/2") || line.contains("[0.5]")) { return 0.5f; }
+		if (line.contains("1-0") || line.contains("[1.0]")) { return 1.0f; }
+		if (line.contains("0-1") || line.contains("[0.0]")) { return 0.0f; }
+		return -1;
+	}
+	
+	/**
+	 * @param line
+	 * @return the FEN at the start of the line - the first four fields and the 
+	 * clocks if they are there
+	 */
+	private static String parseFen(String line) {
+		String[] fields = line.trim().split("\\s+");
+		StringBuilder fen = new StringBuilder();
+		for (int i = 0; i < fields.length && i < 6; i++) {
+			if (i >= 4 && !fields[i].matches("\\d+")) { break; } // Clocks are optional
+			fen.append(fields[i]).append(' ');
+		}
+		return fen.toString();
+	}
+	
+	/**
+	 * @param weights
+	 * @param position
+	 * @return score of the position in centipawns from white's point of view
+	 */
+	private double evaluate(double[] weights, int position) {
+		double score = 0;
+		for (int f = 0, offset = position * FEATURES; f < FEATURES; f++) {
+			score += weights[f] * features[offset + f];
+		}
+		return score;
+	}
+	
+	/**
+	 * @param score - in centipawns
+	 * @param k - scaling constant
+	 * @return expected result of the game from white's point of view
+	 */
+	private static double sigmoid(double score, double k) {
+		return 1.0 / (1.0 + Math.pow(10.0, -k * score / 400.0));
+	}
+	
+	/**
+	 * @param weights
+	 * @param k
+	 * @return mean squared difference between the expected and real results
+	 */
+	public double error(double[] weights, double k) {
+		double sum = IntStream.range(0, CHUNKS).parallel().mapToDouble(chunk -> {
+			double partial = 0;
+			for (int i = chunk * count / CHUNKS; i < (chunk + 1) * count / CHUNKS; i++) {
+				double diff = results[i] - sigmoid(evaluate(weights, i), k);
+				partial += diff * diff;
+			}
+			return partial;
+		}).sum();
+		return sum / count;
+	}
+	
+	/**
+	 * Finds the scaling constant that best matches the current weights to the 
+	 * results, narrowing the search range ten times on each pass
+	 * @param weights
+	 * @return the scaling constant
+	 */
+	public double fitK(double[] weights) {
+		double best = 1.0, step = 0.1;
+		for (int pass = 0; pass < 4; pass++) {
+			double start = Math.max(step, best - step * 10), bestError = Double.MAX_VALUE;
+			for (double k = start; k <= best + step * 10; k += step) {
+				double e = error(weights, k);
+				if (e < bestError) {
+					bestError = e;
+					best = k;
+				}
+			}
+			step /= 10;
+		}
+		return best;
+	}
+	
+	/**
+	 * @param weights
+	 * @param k
+	 * @return gradient of the error with respect to each weight
+	 */
+	private double[] gradient(double[] weights, double k) {
+		double[] total = IntStream.range(0, CHUNKS).parallel().mapToObj(chunk -> {
+			double[] partial = new double[FEATURES];
+			for (int i = chunk * count / CHUNKS; i < (chunk + 1) * count / CHUNKS; i++) {
+				double s = sigmoid(evaluate(weights, i), k);
+				double factor = (s - results[i]) * s * (1 - s); // Chain rule of the squared error and sigmoid
+				for (int f = 0, offset = i * FEATURES; f < FEATURES; f++) {
+					partial[f] += factor * features[offset + f];
+				}
+			}
+			return partial;
+		}).reduce(new double[FEATURES], (a, b) -> {
+			double[] sum = new double[FEATURES];
+			for (int f = 0; f < FEATURES; f++) { sum[f] = a[f] + b[f]; }
+			return sum;
+		});
+		
+		double scale = 2.0 * k * Math.log(10.0) / 400.0 / count;
+		for (int f = 0; f < FEATURES; f++) {
+			total[f] *= scale;
+		}
+		return total;
+	}
+	
+	/**
+	 * Runs gradient descent from the given weights with the Adam optimizer, 
+	 * which copes with features of very different sizes like material and mobility
+	 * @param start - weights to start from
+	 * @param epochs - number of passes over the positions
+	 * @return the tuned weights
+	 */
+	public int[] tune(int[] start, int epochs) {
+		double[] weights = new double[FEATURES], m = new double[FEATURES], v = new double[FEATURES];
+		for (int f = 0; f < FEATURES; f++) {
+			weights[f] = start[f];
+		}
+		
+		double k = fitK(weights);
+		System.out.println(count + " positions, K = " + k + ", error = " + error(weights, k));
+		
+		for (int epoch = 1; epoch <= epochs; epoch++) {
+			double[] g = gradient(weights, k);
+			for (int f = 0; f < FEATURES; f++) {
+				m[f] = BETA1 * m[f] + (1 - BETA1) * g[f];
+				v[f] = BETA2 * v[f] + (1 - BETA2) * g[f] * g[f];
+				double mHat = m[f] / (1 - Math.pow(BETA1, epoch)), vHat = v[f] / (1 - Math.pow(BETA2, epoch));
+				weights[f] -= LEARNING_RATE * mHat / (Math.sqrt(vHat) + EPSILON);
+			}
+			if (epoch % 100 == 0) {
+				System.out.println("epoch " + epoch + ", error = " + error(weights, k));
+			}
+		}
+		
+		int[] tuned = new int[FEATURES];
+		for (int f = 0; f < FEATURES; f++) {
+			tuned[f] = (int) Math.round(weights[f]);
+		}
+		return tuned;
+	}
+	
+	/**
+	 * @return number of positions loaded
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Tunes the weights and writes them where the evaluator loads them at startup
+	 * @param args - positions file, then optionally the number of epochs and 
+	 * the weights file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java utils.Tuner positions.txt [epochs] [weights file]");
+			return;
+		}
+		int epochs = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_EPOCHS;
+		String output = (args.length > 2) ? args[2] : Weights.FILENAME;
+		
+		long start = System.currentTimeMillis();
+		Tuner tuner = new Tuner(args[0]);
+		System.out.println("Loaded " + tuner.getCount() + " positions in " + (System.currentTimeMillis() - start) + " ms");
+		
+		int[] weights = tuner.tune(Weights.getAll(), epochs);
+		for (int f = 0; f < FEATURES; f++) {
+			System.out.println(Weights.NAMES[f] + " = " + weights[f]);
+		}
+		Weights.save(output, weights);
+		System.out.println("Wrote " + output + " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * @author Danny Cummings
+ * This class is a search worker for the Coordinator - it connects over TCP,
+ * searches each root move it is handed, and sends back the score
+ * Every job is searched with the same transposition table, which also takes
+ * in the entries other workers share through the coordinator, and entries
+ * this worker searched deep enough are sent out for the others in turn
+ *
+ * Run: java utils.Worker [host] port
+ */
+package utils;
+
+/* Networking */
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+/* Data Structures */
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Move;
+import model.Search;
+import model.TranspositionTable;
+
+public class Worker {
+
+	private static final int SHARE_DEPTH = 3, // Entries searched at least this deep are shared
+							SHARE_INTERVAL = 50; // Milliseconds between sending shared entries
+
+	private final Socket socket;
+	private final PrintWriter out;
+	private final TranspositionTable table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE);
+	private final BlockingQueue<String[]> jobs = new LinkedBlockingQueue<String[]>(); // A QUIT message ends the worker
+
+	/**
+	 * @param host
+	 * @param port
+	 * @throws IOException if the coordinator cannot be reached
+	 */
+	public Worker(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true); // Results are small and waited on
+		out = new PrintWriter(socket.getOutputStream(), true);
+		table.setShareDepth(SHARE_DEPTH);
+	}
+
+	private synchronized void send(String message) {
+		out.println(message);
+	}
+
+	/**
+	 * Searches jobs until the coordinator says to quit or goes away
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		Thread listener = new Thread(this::listen, "Worker listen");
+		listener.setDaemon(true);
+		listener.start();
+		Thread sharer = new Thread(this::share, "Worker share");
+		sharer.setDaemon(true);
+		sharer.start();
+
+		send(Coordinator.READY);
+		while (true) {
+			String[] job = jobs.take();
+			if (job[0].equals(Coordinator.QUIT)) { break; }
+			send(search(job));
+		}
+		try { socket.close(); } catch (IOException e) { }
+	}
+
+	/**
+	 * @param job - JOB id depth alpha beta move fen
+	 * @return the RESULT message
+	 */
+	private String search(String[] job) {
+		StringBuilder fen = new StringBuilder(job[6]);
+		for (int i = 7; i < job.length; i++) { fen.append(' ').append(job[i]); }
+		Chessboard grid = Chessboard.fromFen(fen.toString());
+		grid.makeMove(ChessUtils.parseMove(job[5]));
+
+		Search search = new Search();
+		search.setTranspositionTable(table);
+		int score = search.score(grid, Integer.parseInt(job[2]), Integer.parseInt(job[3]), Integer.parseInt(job[4]));
+
+		StringBuilder result = new StringBuilder(Coordinator.RESULT + " " + job[1] + " " + score + " " + search.getNodes());
+		List<Move> pv = search.getPv();
+		for (Move move : pv) { result.append(' ').append(ChessUtils.moveText(move)); }
+		return result.toString();
+	}
+
+	/**
+	 * Reads messages from the coordinator, storing shared entries straight away
+	 * and queuing everything else
+	 */
+	private void listen() {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] message = line.split(" ");
+				if (message[0].equals(Coordinator.TT)) {
+					table.merge(Long.parseLong(message[1]), Long.parseLong(message[2]));
+				} else {
+					jobs.add(message);
+				}
+			}
+		} catch (IOException e) {
+			// Treated the same as the coordinator closing
+		}
+		jobs.add(new String[] { Coordinator.QUIT });
+	}
+
+	/**
+	 * Sends the entries queued by the table every so often, so a long job
+	 * still helps the other workers while it runs
+	 */
+	private void share() {
+		while (!socket.isClosed()) {
+			long[] entry;
+			while ((entry = table.pollShared()) != null) {
+				send(Coordinator.TT + " " + entry[0] + " " + entry[1]);
+			}
+			try {
+				Thread.sleep(SHARE_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @param args - an optional host (this machine by default) and the coordinator's port
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: java utils.Worker [host] port");
+			return;
+		}
+		String host = (args.length > 1) ? args[0] : "localhost";
+		int port = Integer.parseInt(args[args.length - 1]);
+		new Worker(host, port).run();
+	}
+}
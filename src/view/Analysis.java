@@ -0,0 +1,184 @@
+/**
+ * @author Danny Cummings
+ * This class runs the live analysis mode - a search with no depth limit
+ * runs in the background on the current position and reports its best
+ * lines, which are drawn over the board as an evaluation bar, arrows for
+ * the first move of each line, and the depth and score of the best line
+ * The search thread only ever swaps in its newest lines, and a timer that
+ * fires once per frame draws whatever is newest, so an endless search
+ * never sends the FX thread more than one redraw a frame
+ */
+package view;
+
+/* GUI */
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/* Data Structures */
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Coordinate;
+import model.Move;
+import model.Search;
+import model.SearchResult;
+
+@SuppressWarnings("restriction")
+public class Analysis {
+
+	private final int LINES = 3; // Number of best lines shown
+
+	private final double BAR_WIDTH = 10.0, // Width of the evaluation bar on the left of the board
+						ARROW_WIDTH = 8.0, HEAD_SIZE = 18.0,
+						BAR_SCALE = 400.0; // Centipawns at which the bar is about three quarters full
+
+	private final Color[] ARROW_COLORS = { Color.rgb(0, 160, 0, 0.8), Color.rgb(0, 90, 200, 0.6), Color.rgb(0, 90, 200, 0.35) };
+
+	private final double boxDim; // Size of each box of the board
+	private final Canvas canvas; // Drawn over the board
+
+	private Search search = null; // Search of the position being analysed, null when stopped
+	private boolean whiteToMove; // Side to move in the position being analysed
+
+	/* Newest lines from the search thread, taken by the timer - null once drawn */
+	private final AtomicReference<List<SearchResult>> latest = new AtomicReference<List<SearchResult>>();
+
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) { // Once per frame on the FX thread
+			List<SearchResult> lines = latest.getAndSet(null);
+			if (lines != null) {
+				draw(lines);
+			}
+		}
+	};
+
+	/**
+	 * @param boardDim - width and height of the board
+	 */
+	public Analysis(double boardDim) {
+		boxDim = boardDim / 8.0;
+		canvas = new Canvas(boardDim, boardDim);
+		canvas.setMouseTransparent(true); // Clicks go through to the board
+		canvas.setManaged(false); // Covers the board instead of taking a box of the grid
+	}
+
+	/**
+	 * @return the node to add over the board
+	 */
+	public Canvas getCanvas() {
+		return canvas;
+	}
+
+	/**
+	 * @return true while analysis mode is on
+	 */
+	public boolean isRunning() {
+		return search != null;
+	}
+
+	/**
+	 * Stops analysing whatever position was being analysed and starts on a new one
+	 * @param grid - a copy of the board, owned by the analysis from now on
+	 */
+	public void analyze(Chessboard grid) {
+		stopSearch();
+		Search current = new Search();
+		current.setMultiPv(LINES);
+		search = current;
+		whiteToMove = grid.isWhiteTurn();
+		clear();
+		timer.start();
+
+		Thread thread = new Thread(() -> current.analyze(grid, Search.MAX_DEPTH, lines -> {
+			if (!current.isStopped()) { latest.set(lines); } // Replaces lines the timer has not drawn yet
+		}), "Analysis");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Turns analysis mode off and clears the drawing
+	 */
+	public void stop() {
+		stopSearch();
+		timer.stop();
+		clear();
+	}
+
+	/**
+	 * Stops the background search, which finishes on its own thread
+	 */
+	private void stopSearch() {
+		if (search != null) {
+			search.stop();
+			search = null;
+		}
+		latest.set(null);
+	}
+
+	/**
+	 * Removes everything drawn over the board
+	 */
+	private void clear() {
+		canvas.getGraphicsContext2D().clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+	}
+
+	/**
+	 * Draws the evaluation bar, an arrow for each line, and the depth and score
+	 * of the best line
+	 * @param lines - best line first
+	 */
+	private void draw(List<SearchResult> lines) {
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+		clear();
+
+		/* Arrows, worst line first so the best is drawn on top */
+		for (int i = Math.min(lines.size(), ARROW_COLORS.length) - 1; i >= 0; i--) {
+			drawArrow(gc, lines.get(i).getBestMove(), ARROW_COLORS[i]);
+		}
+
+		/* Evaluation bar - white's share of the bar grows from the bottom */
+		SearchResult best = lines.get(0);
+		int score = whiteToMove ? best.getScore() : -best.getScore();
+		double share = best.isMate() ? (score > 0 ? 1.0 : 0.0) : 1.0 / (1.0 + Math.pow(10.0, -score / BAR_SCALE));
+		double height = canvas.getHeight();
+		gc.setFill(Color.rgb(40, 40, 40, 0.85));
+		gc.fillRect(0, 0, BAR_WIDTH, height);
+		gc.setFill(Color.rgb(245, 245, 245, 0.95));
+		gc.fillRect(0, height * (1.0 - share), BAR_WIDTH, height * share);
+
+		/* Depth and score of the best line */
+		String text = "depth " + best.getDepth() + "  " + (best.isMate() ? "mate" : String.format("%+.2f", score / 100.0));
+		gc.setFill(Color.rgb(0, 0, 0, 0.6));
+		gc.fillRect(BAR_WIDTH, 0, 120, 20);
+		gc.setFill(Color.WHITE);
+		gc.fillText(text, BAR_WIDTH + 5, 14);
+	}
+
+	/**
+	 * Draws an arrow from the center of the box the move leaves to the center
+	 * of the box it lands on
+	 * @param gc
+	 * @param move
+	 * @param color
+	 */
+	private void drawArrow(GraphicsContext gc, Move move, Color color) {
+		Coordinate from = move.getFrom(), to = move.getTo();
+		double x1 = (from.getX() + 0.5) * boxDim, y1 = (from.getY() + 0.5) * boxDim;
+		double x2 = (to.getX() + 0.5) * boxDim, y2 = (to.getY() + 0.5) * boxDim;
+		double angle = Math.atan2(y2 - y1, x2 - x1);
+		double baseX = x2 - HEAD_SIZE * Math.cos(angle), baseY = y2 - HEAD_SIZE * Math.sin(angle); // Where the head starts
+
+		gc.setStroke(color);
+		gc.setFill(color);
+		gc.setLineWidth(ARROW_WIDTH);
+		gc.strokeLine(x1, y1, baseX, baseY);
+		gc.fillPolygon(new double[] { x2, baseX + HEAD_SIZE * 0.6 * Math.sin(angle), baseX - HEAD_SIZE * 0.6 * Math.sin(angle) },
+				new double[] { y2, baseY - HEAD_SIZE * 0.6 * Math.cos(angle), baseY + HEAD_SIZE * 0.6 * Math.cos(angle) }, 3);
+	}
+}
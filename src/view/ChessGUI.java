@@ -12,6 +12,7 @@ package view;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.Node;
 import javafx.scene.Cursor;
@@ -26,25 +27,37 @@ import javafx.scene.control.Label;
 import javafx.scene.paint.Color;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
 import javafx.stage.Stage;
 import javax.swing.JOptionPane;
 
+/* Networking */
+import java.io.IOException;
+
 /* Data Structures */
 import java.util.ArrayList;
-import javafx.util.Pair; 
 
 /* Model Classes */
 import model.Chessboard;
 import model.Piece;
 import model.Coordinate;
+import model.Level;
+import model.Move;
+import model.MonteCarlo;
+import model.Ponderer;
+import model.SearchResult;
+
+/* Utility Classes */
+import utils.Broadcaster;
 
 @SuppressWarnings("restriction")
 public class ChessGUI extends Application {
 
 	private Chessboard grid;
 
-	private Image[] images;
+	private Image atlas; // Every piece in one image - white on the top row, black on the bottom
 	private ImageView selected; // The current piece selected
+	private Analysis analysis; // Draws the engine's best lines over the board while turned on
 	
 	// borders for labels to indicate where the last move was made
 	private final Border NO_BORDER = new Border(new BorderStroke(null, null, null, null)),
@@ -54,15 +67,26 @@ public class ChessGUI extends Application {
 											   new BorderWidths(2.0)));
 
 	private final double HIGHLIGHT = 0.5, // Indicates which box the piece can move to
-						SCENE_DIM = 640.0, BOX_DIM = SCENE_DIM / 8.0; // dimensions of board
+						SCENE_DIM = 640.0, BOX_DIM = SCENE_DIM / 8.0, // dimensions of board
+						SPRITE_DIM = 160.0; // dimensions of each piece in the atlas
+	
+	private final String ATLAS = "view/Pieces/Pieces.png"; // Pawn, rook, knight, bishop, queen, king from left to right
+	
+	private final Level LEVEL = Level.CASUAL; // How strong the computer plays, and how long it may think
+	
+	private final boolean TREE_SEARCH = false; // Plays with Monte Carlo tree search instead of alpha-beta
+	private final MonteCarlo monteCarlo = TREE_SEARCH ? new MonteCarlo() : null; // Keeps its tree between moves
+	private final Ponderer ponderer = new Ponderer(LEVEL); // Thinks on the human's time between alpha-beta moves
 	
-	private final int DEPTH = 3,  // How far ahead the computer looks
-					KING_VAL = 200, QUEEN_VAL = 9, ROOK_VAL = 5,   // Worth of each piece
-					BISHOP_VAL = 3, KNIGHT_VAL = 2,  PAWN_VAL = 1;
+	private final int BROADCAST_PORT = 0; // Spectators watch the game on this port, 0 to not broadcast
+	private Broadcaster broadcaster = null;
+	
+	private final int KING_VAL = Chessboard.KING, QUEEN_VAL = Chessboard.QUEEN, ROOK_VAL = Chessboard.ROOK,   // Worth of each piece
+					BISHOP_VAL = Chessboard.BISHOP, KNIGHT_VAL = Chessboard.KNIGHT,  PAWN_VAL = Chessboard.PAWN;
 	
 	private boolean humanTurn = true;  // keeps track of the state of the game
 	
-	private int turnsWithoutCapture = 0; // game ends in stalemate if reaches 50
+	private boolean interactive = true; // False when driven by GuiBenchmark - no dialogs, and the game over does not exit
 	
 	/**
 	 * Creates and displays the chessboard and assigns functionality to
@@ -73,20 +97,13 @@ public class ChessGUI extends Application {
 	 */
 	public void start(Stage primaryStage) throws InterruptedException {
 		
-		/* Initializes the images */
-		images = new Image[12];
-		images[0] = new Image("view/Pieces/White Pawn.png");
-		images[1] = new Image("view/Pieces/White Rook.png");
-		images[2] = new Image("view/Pieces/White Knight.png");
-		images[3] = new Image("view/Pieces/White Bishop.png");
-		images[4] = new Image("view/Pieces/White Queen.png");
-		images[5] = new Image("view/Pieces/White King.png");
-		images[6] = new Image("view/Pieces/Black Pawn.png");
-		images[7] = new Image("view/Pieces/Black Rook.png");
-		images[8] = new Image("view/Pieces/Black Knight.png");
-		images[9] = new Image("view/Pieces/Black Bishop.png");
-		images[10] = new Image("view/Pieces/Black Queen.png");
-		images[11] = new Image("view/Pieces/Black King.png");
+		/* Builds the engine's tables and compiles the search while the window is built */
+		Thread warmUp = new Thread(ChessGUI::warmUp, "Engine warm up");
+		warmUp.setDaemon(true);
+		warmUp.start();
+		
+		/* Decodes the piece images in the background, they appear once ready */
+		atlas = new Image(ATLAS, true);
 
 		/* Initializes the chess board */
 		grid = new Chessboard();
@@ -103,8 +120,25 @@ public class ChessGUI extends Application {
 			}
 		}
 		
+		/* Analysis is drawn over everything else, added last so it stays on top */
+		analysis = new Analysis(SCENE_DIM);
+		grid.getChildren().add(analysis.getCanvas());
+		
+		/* Lets spectators connect and sends them the starting position */
+		if (BROADCAST_PORT > 0) {
+			try {
+				broadcaster = new Broadcaster(BROADCAST_PORT);
+				broadcaster.publish(grid, null);
+			} catch (IOException e) {
+				System.err.println("Could not broadcast on port " + BROADCAST_PORT + ": " + e.getMessage());
+			}
+		}
+		
 		/* Adds the chess board to the stage and displays the stage */
 		Scene scene = new Scene(grid, SCENE_DIM, SCENE_DIM);
+		scene.setOnKeyPressed(e -> {
+			if (e.getCode() == KeyCode.A) { toggleAnalysis(); } // 'A' turns analysis mode on and off
+		});
 		primaryStage.setTitle("Chess");
 		primaryStage.setScene(scene);
 		primaryStage.show();
@@ -119,7 +153,7 @@ public class ChessGUI extends Application {
 	private void labelClick(Node node) {
 		node.setOnMousePressed(e -> {
 			if (node.getOpacity() == HIGHLIGHT) { // Only take action if highlighted
-				performMove(grid.getPiece(selected).getLocation(), grid.getLabel((Label) node)); // Performs human move
+				humanMove(grid.getPiece(selected).getLocation(), grid.getLabel((Label) node)); // Performs human move
 				restoreOpacity(); // Takes away remaining highlights
 			}
 		});
@@ -149,7 +183,7 @@ public class ChessGUI extends Application {
 			else { // Piece is black
 				/* Makes a move if image is highlighted/has a hand */ 
 				if (piece.getImage().getCursor() == Cursor.HAND) {
-					performMove(grid.getPiece(selected).getLocation(), piece.getLocation()); // Performs human move
+					humanMove(grid.getPiece(selected).getLocation(), piece.getLocation()); // Performs human move
 				}
 			}
 		});
@@ -164,48 +198,94 @@ public class ChessGUI extends Application {
 	 * Performs computer move with smart AI
 	 */
 	private void computerMove() {
-		Pair<ImageView, ArrayList<Coordinate>> pair = grid.dfs(DEPTH); 
-		selected = pair.getKey(); // Update selected piece to move
-		performMove(pair.getValue().get(0), pair.getValue().get(1));  // performs computer move
+		SearchResult result = TREE_SEARCH ? monteCarlo.search(grid, LEVEL) : ponderer.move(grid);
+		Move move = result.getBestMove();
+		selected = grid.pieceAt(move.getFrom().getX(), move.getFrom().getY()).getImage(); // Update selected piece to move
+		performMove(move);  // performs computer move
+		if (!TREE_SEARCH && !grid.getLegalMoves().isEmpty() && !grid.isDraw()) { ponderer.ponder(grid, result); } // Searches the expected reply while the human thinks
 	}
-
+	
 	/**
-	 * Calculates move distance, adjusts images accordingly, moving selected piece
-	 * from 'from' coordinate to 'to' coordinate on board
-	 * This method also handles the case where a pawn reaches the end of board
-	 * Displays state of the game if necessary
+	 * Performs the human move from 'from' to 'to', asking which piece to promote
+	 * to when a pawn reaches the end of the board
 	 * @param from
 	 * @param to
 	 */
-	private void performMove(Coordinate from, Coordinate to) {
+	private void humanMove(Coordinate from, Coordinate to) {
+		int promotion = 0;
+		Piece piece = grid.pieceAt(from.getX(), from.getY());
+		if (piece.getValue() == PAWN_VAL && to.getY() == 0) {
+			promotion = choosePromotion();
+		}
+		performMove(new Move(from, to, promotion));
+	}
+	
+	/**
+	 * Asks the player which piece their pawn becomes, a queen if the dialog is closed
+	 * @return absolute value of the chosen piece
+	 */
+	private int choosePromotion() {
+		String[] names = { "Queen", "Rook", "Bishop", "Knight" };
+		int[] values = { QUEEN_VAL, ROOK_VAL, BISHOP_VAL, KNIGHT_VAL };
+		int choice = JOptionPane.showOptionDialog(null, "Promote pawn to:", "Promotion", JOptionPane.DEFAULT_OPTION, 
+				JOptionPane.QUESTION_MESSAGE, null, names, names[0]);
+		return (choice >= 0) ? values[choice] : QUEEN_VAL;
+	}
+	
+	/**
+	 * Moves the display of an image on the board from 'from' to 'to'
+	 * @param image
+	 * @param from
+	 * @param to
+	 */
+	private void translateImage(ImageView image, Coordinate from, Coordinate to) {
 	    /* Determines the factors for how far a piece must move
 		* by subtracting the coordinates of the image from the
 		* highlighted label */
 		int xFactor = from.getX() - to.getX();
 		int yFactor = from.getY() - to.getY();
 		
-		double xPos = selected.getTranslateX(), yPos = selected.getTranslateY();
+		double xPos = image.getTranslateX(), yPos = image.getTranslateY();
+		
+		image.setTranslateX(xPos - (xFactor * BOX_DIM));
+		image.setTranslateY(yPos - (yFactor * BOX_DIM));
+	}
+
+	/**
+	 * Calculates move distance, adjusts images accordingly, moving selected piece
+	 * from 'from' coordinate to 'to' coordinate on board
+	 * This method also handles castling, en passant and the case where a pawn 
+	 * reaches the end of board
+	 * Displays state of the game if necessary
+	 * @param move
+	 */
+	private void performMove(Move move) {
+		Coordinate from = move.getFrom(), to = move.getTo();
 		
 		// Moves display of selected image on board
-		selected.setTranslateX(xPos - (xFactor * BOX_DIM));
-		selected.setTranslateY(yPos - (yFactor * BOX_DIM));
+		translateImage(selected, from, to);
 		
 		humanTurn = !humanTurn; // Switches turn
 		
-		Piece opponent = grid.pieceAt(to.getX(), to.getY());
-		if (opponent != null) { // opponent piece captured
+		Piece opponent = grid.capturedPiece(from.getX(), from.getY(), to.getX(), to.getY());
+		if (opponent != null) { // opponent piece captured, possibly en passant
 			// remove opponent piece visibility from board
 			opponent.getImage().setVisible(false);
 			opponent.getImage().setDisable(true);
-			turnsWithoutCapture = 0; // reset the number of turns without capture
-		} else {  // no capture took place
-			turnsWithoutCapture++;  // update the number of turns without capture
+		}
+		
+		Piece piece = grid.pieceAt(from.getX(), from.getY());
+		if (Math.abs(piece.getValue()) == KING_VAL && Math.abs(to.getX() - from.getX()) == 2) { // Castling
+			int rookX = (to.getX() > from.getX()) ? 7 : 0, rookTo = (to.getX() > from.getX()) ? 5 : 3;
+			translateImage(grid.pieceAt(rookX, from.getY()).getImage(), 
+					new Coordinate(rookX, from.getY()), new Coordinate(rookTo, from.getY()));
 		}
 		
 		/* Updates the coordinates of the image that just moved */
-		if (grid.movePiece(from.getX(), from.getY(), to.getX(), to.getY())) {
+		if (grid.makeMove(move)) {
 			replacePawn(to); // Pawn reached the end of the board
 		}
+		if (broadcaster != null) { broadcaster.publish(grid, move); }
 		
 		restoreBorders();  // reset all boxes to not have the red border
 		
@@ -216,34 +296,60 @@ public class ChessGUI extends Application {
 		/* displays messages regarding state of the game */
 		if (displayGameState()) {
 			/* GAME OVER */
-			Platform.exit();
+			analysis.stop();
+			if (interactive) { Platform.exit(); }
+		}
+		else if (analysis.isRunning()) { // Moves on to the new position
+			analysis.analyze(new Chessboard(grid));
 		}
 		
 		/* Resets all the black pieces to have default cursors */
 		restoreCursors();
 	}
+	
+	/**
+	 * Turns analysis mode on for the current position, or off if it was on
+	 */
+	private void toggleAnalysis() {
+		if (analysis.isRunning()) {
+			analysis.stop();
+		}
+		else {
+			analysis.analyze(new Chessboard(grid));
+		}
+	}
 
 	/**
-	* Replaces a pawn on the board with a queen by default
+	* Replaces the image of a promoted pawn with the image of the piece it became
 	* Called when a pawn reaches the end of the board
-	* @param co - coordinate of the pawn to be replaced
+	* @param co - coordinate of the promoted pawn
 	*/
 	private void replacePawn(Coordinate co) {
-		Piece piece = grid.pieceAt(co.getX(), co.getY()); // Gets pawn
-		piece.getImage().setVisible(false);  // removes pawn's image from board
-		piece.getImage().setDisable(true);
-		int val = piece.isWhite() ? QUEEN_VAL : -QUEEN_VAL, queenIdx = piece.isWhite() ? 4 : 10; // Always a queen by default
-		initializePiece(new ImageView(images[queenIdx]), piece.isWhite(), co.getX(), co.getY(), val); // adds new image to board
-		imageClick(grid.pieceAt(co.getX(), co.getY()).getImage()); // Give new piece functionality
+		Piece piece = grid.pieceAt(co.getX(), co.getY()); // Gets the promoted piece, which kept the pawn's image
+		int idx;
+		switch (Math.abs(piece.getValue())) {
+		case ROOK_VAL:   idx = 1; break;
+		case KNIGHT_VAL: idx = 2; break;
+		case BISHOP_VAL: idx = 3; break;
+		default:         idx = 4; break; // Queen
+		}
+		piece.getImage().setViewport(viewport(piece.isWhite() ? idx : idx + 6));
 	}
 
 	/**
-	* Displays messages regarding the state of the game: check, checkmate, or stalemate
+	* Displays messages regarding the state of the game: check, checkmate, stalemate
+	* or a draw by repetition, the fifty move rule or insufficient material
 	* @return true if the game is over, false otherwise
 	*/
 	private boolean displayGameState() {
-		if (turnsWithoutCapture == 50) {
-			JOptionPane.showMessageDialog(null, "Stalemate: It's a draw!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
+		if (grid.isThreefoldRepetition()) {
+			message("Threefold repetition: It's a draw!", "Game Over");
+			return true;
+		} else if (grid.isFiftyMoveRule()) {
+			message("Fifty move rule: It's a draw!", "Game Over");
+			return true;
+		} else if (grid.isInsufficientMaterial()) {
+			message("Insufficient material: It's a draw!", "Game Over");
 			return true;
 		}
 		
@@ -251,28 +357,48 @@ public class ChessGUI extends Application {
 		
 		if (humanTurn) {
 			if (check && oom) {
-				JOptionPane.showMessageDialog(null, "Checkmate: Black wins!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
+				message("Checkmate: Black wins!", "Game Over");
 				return true;
 			} else if (check) {
-				JOptionPane.showMessageDialog(null, "White is in check!", "Check", JOptionPane.INFORMATION_MESSAGE);
+				message("White is in check!", "Check");
 			} else if (oom) {
-				JOptionPane.showMessageDialog(null, "Stalemate: It's a draw!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
+				message("Stalemate: It's a draw!", "Game Over");
 				return true;
 			}
 		} else {
 			if (check && oom) {
-				JOptionPane.showMessageDialog(null, "Checkmate: White wins!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
+				message("Checkmate: White wins!", "Game Over");
 				return true;
 			} else if (check) {
-				JOptionPane.showMessageDialog(null, "Black is in check!", "Check", JOptionPane.INFORMATION_MESSAGE);
+				message("Black is in check!", "Check");
 			} else if (oom) {
-				JOptionPane.showMessageDialog(null, "Stalemate: It's a draw!", "Game Over", JOptionPane.INFORMATION_MESSAGE);
+				message("Stalemate: It's a draw!", "Game Over");
 				return true;
 			}
 		}
 		return false;
 	}
 	
+	/**
+	 * Shows a message in a dialog, unless the GUI is driven by a benchmark
+	 * @param text
+	 * @param title
+	 */
+	private void message(String text, String title) {
+		if (interactive) {
+			JOptionPane.showMessageDialog(null, text, title, JOptionPane.INFORMATION_MESSAGE);
+		}
+	}
+	
+	/**
+	 * Turns off the dialogs and the exit at the end of the game, so a benchmark
+	 * can play scripted games without anyone to close them
+	 * @param interactive
+	 */
+	void setInteractive(boolean interactive) {
+		this.interactive = interactive;
+	}
+	
 	/**
 	 * Colors the background of the chessboard with labels
 	 */
@@ -305,49 +431,78 @@ public class ChessGUI extends Application {
 	private void initializePieces() {
 		/* Black Pawns */
 		for (int i = 0; i < 8; i++) {
-			initializePiece(new ImageView(images[6]), false, i, 1, -PAWN_VAL);
+			initializePiece(sprite(6), false, i, 1, -PAWN_VAL);
 		}
 		
 		/* White Pawns */
 		for (int i = 0; i < 8; i++) {
-			initializePiece(new ImageView(images[0]), true, i, 6, PAWN_VAL);
+			initializePiece(sprite(0), true, i, 6, PAWN_VAL);
 		}
 		
 		/* Black Rooks */
-		initializePiece(new ImageView(images[7]), false, 0, 0, -ROOK_VAL);
-		initializePiece(new ImageView(images[7]), false, 7, 0, -ROOK_VAL);
+		initializePiece(sprite(7), false, 0, 0, -ROOK_VAL);
+		initializePiece(sprite(7), false, 7, 0, -ROOK_VAL);
 		
 		/* White Rooks */
-		initializePiece(new ImageView(images[1]), true, 0, 7, ROOK_VAL);
-		initializePiece(new ImageView(images[1]), true, 7, 7, ROOK_VAL);
+		initializePiece(sprite(1), true, 0, 7, ROOK_VAL);
+		initializePiece(sprite(1), true, 7, 7, ROOK_VAL);
 		
 		/* Black Knights */
-		initializePiece(new ImageView(images[8]), false, 1, 0, -KNIGHT_VAL);
-		initializePiece(new ImageView(images[8]), false, 6, 0, -KNIGHT_VAL);
+		initializePiece(sprite(8), false, 1, 0, -KNIGHT_VAL);
+		initializePiece(sprite(8), false, 6, 0, -KNIGHT_VAL);
 		
 		/* White Knights */
-		initializePiece(new ImageView(images[2]), true, 1, 7, KNIGHT_VAL);
-		initializePiece(new ImageView(images[2]), true, 6, 7, KNIGHT_VAL);
+		initializePiece(sprite(2), true, 1, 7, KNIGHT_VAL);
+		initializePiece(sprite(2), true, 6, 7, KNIGHT_VAL);
 		
 		/* Black Bishops */
-		initializePiece(new ImageView(images[9]), false, 2, 0, -BISHOP_VAL);
-		initializePiece(new ImageView(images[9]), false, 5, 0, -BISHOP_VAL);
+		initializePiece(sprite(9), false, 2, 0, -BISHOP_VAL);
+		initializePiece(sprite(9), false, 5, 0, -BISHOP_VAL);
 		
 		/* White Bishops */
-		initializePiece(new ImageView(images[3]), true, 2, 7, BISHOP_VAL);
-		initializePiece(new ImageView(images[3]), true, 5, 7, BISHOP_VAL);
+		initializePiece(sprite(3), true, 2, 7, BISHOP_VAL);
+		initializePiece(sprite(3), true, 5, 7, BISHOP_VAL);
 		
 		/* Black Queen */
-		initializePiece(new ImageView(images[10]), false, 3, 0, -QUEEN_VAL);
+		initializePiece(sprite(10), false, 3, 0, -QUEEN_VAL);
 		
 		/* White Queen */
-		initializePiece(new ImageView(images[4]), true, 3, 7, QUEEN_VAL);
+		initializePiece(sprite(4), true, 3, 7, QUEEN_VAL);
 		
 		/* Black King */
-		initializePiece(new ImageView(images[11]), false, 4, 0, -KING_VAL);
+		initializePiece(sprite(11), false, 4, 0, -KING_VAL);
 		
 		/* White King */
-		initializePiece(new ImageView(images[5]), true, 4, 7, KING_VAL);
+		initializePiece(sprite(5), true, 4, 7, KING_VAL);
+	}
+	
+	/**
+	 * @param index - 0 to 5 for white pawn, rook, knight, bishop, queen, king, 
+	 * 6 to 11 for black
+	 * @return the part of the atlas holding the piece
+	 */
+	private Rectangle2D viewport(int index) {
+		return new Rectangle2D((index % 6) * SPRITE_DIM, (index / 6) * SPRITE_DIM, SPRITE_DIM, SPRITE_DIM);
+	}
+	
+	/**
+	 * Creates a view of one piece in the atlas, so every piece shares the same
+	 * decoded image
+	 * @param index - see viewport()
+	 * @return the piece's image
+	 */
+	private ImageView sprite(int index) {
+		ImageView image = new ImageView(atlas);
+		image.setViewport(viewport(index));
+		return image;
+	}
+	
+	/**
+	 * Runs a short search on a board of its own so the attack tables are built
+	 * and the search is compiled before the computer's first move
+	 */
+	private static void warmUp() {
+		Chessboard.fromFen(Chessboard.START_FEN).dfs(2, true);
 	}
 	
 	/**
@@ -0,0 +1,307 @@
+/**
+ * @author Danny Cummings
+ * This class measures how responsive the GUI is - it plays scripted games
+ * through ChessGUI by firing mouse events at the board, the way a player
+ * clicking would, and times each interaction on the FX thread
+ * Three interactions are timed: pressing a white piece until its moves are
+ * highlighted, pressing a highlighted box until the move is made, and
+ * releasing it until the computer has replied (which includes its search).
+ * For each, it also times how long after the handler returns the next frame
+ * is laid out, which is when the change can appear on screen
+ * An animation timer runs throughout so a frame is due every refresh, and
+ * the time between frames is recorded - frames missed while the FX thread
+ * is busy with the computer's move show up as long gaps
+ * The human's moves are picked at random from a fixed seed, never a
+ * promotion since that asks for a piece in a dialog
+ *
+ * Run: java view.GuiBenchmark [games] [moves] [report file]
+ * It runs without a window on the Monocle headless platform, unless
+ * -Dglass.platform is set to something else. Monocle is not part of the
+ * JavaFX SDK, its jar (org.testfx:openjfx-monocle of the same version) is
+ * added with --patch-module javafx.graphics=openjfx-monocle.jar
+ */
+package view;
+
+/* GUI */
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventTarget;
+import javafx.event.EventType;
+import javafx.scene.control.Label;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.stage.Stage;
+
+/* IO */
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/* Data Structures */
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/* Model Classes */
+import model.Chessboard;
+import model.Move;
+import model.Piece;
+
+@SuppressWarnings("restriction")
+public class GuiBenchmark {
+
+	private static final int DEFAULT_GAMES = 3, DEFAULT_MOVES = 20; // Human moves in each game
+	private static final long SEED = 1;
+	private static final double FRAME_MILLIS = 1000.0 / 60.0; // Refresh the frame times are measured against
+
+	private static int games = DEFAULT_GAMES, moves = DEFAULT_MOVES;
+	private static String reportFile = null;
+
+	/* Interaction and frame timings, in nanoseconds */
+	private final Timings highlight = new Timings(), highlightRepaint = new Timings(),
+						humanMove = new Timings(), humanRepaint = new Timings(),
+						computerMove = new Timings(), computerRepaint = new Timings(),
+						frames = new Timings();
+
+	/* Only touched on the FX thread */
+	private long lastFrame = 0;
+	private long handled = 0;            // When the last timed handler returned
+	private Timings repaint = null;      // Where the time to the next layout goes, null once recorded
+	private CountDownLatch laidOut = null;
+
+	/**
+	 * Samples of one measurement, kept so any percentile can be reported
+	 */
+	private static class Timings {
+		private long[] samples = new long[256];
+		private int count = 0;
+
+		private synchronized void add(long nanos) {
+			if (count == samples.length) { samples = Arrays.copyOf(samples, count * 2); }
+			samples[count++] = nanos;
+		}
+
+		/**
+		 * @param fraction - 0.5 for the median
+		 * @return the sample that fraction of the samples are at or below, in milliseconds
+		 */
+		private synchronized double percentile(double fraction) {
+			if (count == 0) { return 0; }
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			int index = Math.max((int) Math.ceil(fraction * count) - 1, 0);
+			return sorted[Math.min(index, count - 1)] / 1e6;
+		}
+
+		private synchronized double mean() {
+			long sum = 0;
+			for (int i = 0; i < count; i++) { sum += samples[i]; }
+			return (count == 0) ? 0 : sum / 1e6 / count;
+		}
+
+		/**
+		 * @param millis
+		 * @return samples longer than millis
+		 */
+		private synchronized int over(double millis) {
+			int over = 0;
+			for (int i = 0; i < count; i++) { over += (samples[i] / 1e6 > millis) ? 1 : 0; }
+			return over;
+		}
+	}
+
+	/**
+	 * Starts the benchmark once the FX toolkit is up, its stage is not used
+	 * It is launched from main rather than being the main class, since the
+	 * java launcher starts the toolkit for an Application before its main
+	 * runs, which is too late to choose the headless platform
+	 */
+	public static class Launcher extends Application {
+		public void start(Stage primaryStage) {
+			new GuiBenchmark().start();
+		}
+	}
+
+	/**
+	 * Starts the driver, on the FX thread
+	 */
+	private void start() {
+		Platform.setImplicitExit(false); // Each game's window is closed before the next opens
+		new AnimationTimer() { // Keeps a frame due every refresh and times them
+			public void handle(long now) {
+				if (lastFrame != 0) { frames.add(now - lastFrame); }
+				lastFrame = now;
+			}
+		}.start();
+
+		Thread driver = new Thread(() -> {
+			try {
+				drive();
+				report();
+			} catch (Exception e) {
+				e.printStackTrace();
+			} finally {
+				Platform.exit();
+			}
+		}, "GUI benchmark");
+		driver.setDaemon(true);
+		driver.start();
+	}
+
+	/**
+	 * Plays the scripted games, waiting for each step's frame before the next
+	 * @throws Exception
+	 */
+	private void drive() throws Exception {
+		Random random = new Random(SEED);
+		for (int game = 0; game < games; game++) {
+			Stage stage = onFx(() -> {
+				Stage s = new Stage();
+				ChessGUI gui = new ChessGUI();
+				gui.setInteractive(false);
+				gui.start(s);
+				s.getScene().addPostLayoutPulseListener(this::laidOut);
+				return s;
+			});
+			Chessboard grid = onFx(() -> (Chessboard) stage.getScene().getRoot());
+
+			for (int ply = 0; ply < moves; ply++) {
+				Move move = onFx(() -> pickMove(grid, random));
+				if (move == null) { break; } // Game over, or only promotions left
+
+				EventTarget[] targets = onFx(() -> { // The piece, the box or piece it moves to, and the box
+					Piece captured = grid.pieceAt(move.getTo().getX(), move.getTo().getY());
+					Label box = grid.labelAt(move.getTo().getX(), move.getTo().getY());
+					return new EventTarget[] { grid.pieceAt(move.getFrom().getX(), move.getFrom().getY()).getImage(),
+							(captured != null) ? captured.getImage() : box, box };
+				});
+
+				/* Presses the piece, which highlights where it can go */
+				step(highlight, highlightRepaint, targets[0], MouseEvent.MOUSE_PRESSED);
+
+				/* Presses the box or the piece on it, which makes the move */
+				step(humanMove, humanRepaint, targets[1], MouseEvent.MOUSE_PRESSED);
+
+				/* Releases on the box, which makes the computer reply */
+				if (onFx(() -> grid.getLegalMoves().isEmpty() || grid.isDraw())) { break; }
+				step(computerMove, computerRepaint, targets[2], MouseEvent.MOUSE_RELEASED);
+			}
+			onFx(() -> {
+				stage.hide();
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * @param grid
+	 * @param random
+	 * @return a random move for the human, none if it is not their turn, the
+	 * game is over or every move is a promotion
+	 */
+	private Move pickMove(Chessboard grid, Random random) {
+		if (!grid.isWhiteTurn() || grid.isDraw()) { return null; }
+		List<Move> legal = grid.getLegalMoves();
+		Move[] choices = legal.stream().filter(m -> !(grid.pieceAt(m.getFrom().getX(), m.getFrom().getY()).getValue() == Chessboard.PAWN
+				&& m.getTo().getY() == 0)).toArray(Move[]::new);
+		return (choices.length == 0) ? null : choices[random.nextInt(choices.length)];
+	}
+
+	/**
+	 * Fires a mouse event at a node on the FX thread, times its handlers, and
+	 * waits for the next frame to be laid out
+	 * @param latency - where the handlers' time goes
+	 * @param toRepaint - where the time from the handlers returning to the next layout goes
+	 * @param target
+	 * @param type
+	 * @throws Exception
+	 */
+	private void step(Timings latency, Timings toRepaint, EventTarget target, EventType<MouseEvent> type) throws Exception {
+		CountDownLatch frame = new CountDownLatch(1);
+		onFx(() -> {
+			long start = System.nanoTime();
+			Event.fireEvent(target, new MouseEvent(type, 0, 0, 0, 0, MouseButton.PRIMARY, 1,
+					false, false, false, false, type == MouseEvent.MOUSE_PRESSED, false, false, false, false, true, null));
+			handled = System.nanoTime();
+			latency.add(handled - start);
+			repaint = toRepaint;
+			laidOut = frame;
+			return null;
+		});
+		if (!frame.await(10, TimeUnit.SECONDS)) { throw new IllegalStateException("No frame after " + type); }
+	}
+
+	/**
+	 * Called on the FX thread after every layout, records the time since the
+	 * last timed handler returned
+	 */
+	private void laidOut() {
+		if (repaint != null) {
+			repaint.add(System.nanoTime() - handled);
+			repaint = null;
+			laidOut.countDown();
+		}
+	}
+
+	/**
+	 * Runs a task on the FX thread and waits for its result
+	 * @param task
+	 * @return the result
+	 * @throws Exception
+	 */
+	private static <T> T onFx(Callable<T> task) throws Exception {
+		FutureTask<T> future = new FutureTask<T>(task);
+		Platform.runLater(future);
+		return future.get();
+	}
+
+	/**
+	 * Prints the timings, and writes them to the report file if one was given
+	 * @throws IOException
+	 */
+	private void report() throws IOException {
+		StringWriter text = new StringWriter();
+		PrintWriter out = new PrintWriter(text);
+		out.printf("%-22s %7s %9s %9s %9s %9s %9s%n", "milliseconds", "count", "mean", "p50", "p90", "p99", "max");
+		row(out, "click to highlight", highlight);
+		row(out, "  to frame", highlightRepaint);
+		row(out, "click to human move", humanMove);
+		row(out, "  to frame", humanRepaint);
+		row(out, "release to reply", computerMove);
+		row(out, "  to frame", computerRepaint);
+		row(out, "frame interval", frames);
+		out.printf("frames over %.1fms: %d, over 100ms: %d%n", 2 * FRAME_MILLIS, frames.over(2 * FRAME_MILLIS), frames.over(100));
+		out.flush();
+
+		System.out.print(text);
+		if (reportFile != null) { Files.write(Paths.get(reportFile), text.toString().getBytes()); }
+	}
+
+	private static void row(PrintWriter out, String name, Timings timings) {
+		out.printf("%-22s %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, timings.count, timings.mean(),
+				timings.percentile(0.5), timings.percentile(0.9), timings.percentile(0.99), timings.percentile(1.0));
+	}
+
+	/**
+	 * @param args - [games] [moves] [report file]
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0) { games = Integer.parseInt(args[0]); }
+		if (args.length > 1) { moves = Integer.parseInt(args[1]); }
+		if (args.length > 2) { reportFile = args[2]; }
+		if (System.getProperty("glass.platform") == null) { // Headless unless told otherwise
+			System.setProperty("glass.platform", "Monocle");
+			System.setProperty("monocle.platform", "Headless");
+			System.setProperty("prism.order", "sw");
+		}
+		Application.launch(Launcher.class, args);
+	}
+}